@@ -1,9 +1,11 @@
 package horvath.app;
 import horvath.gym.Gym;
 import horvath.gym.GymException;
+import horvath.gym.GymStore;
 import horvath.gym.GymTools;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.Locale;
 import java.util.Scanner;
 
 /**
@@ -32,7 +34,28 @@ public class CreateGym {
         System.out.print(gymPrompt.getLanguages().getString("input_gym_path"));
         String path = sc.nextLine();
 
-        gym = new Gym(gymName, maxPeople, Path.of(path),feeCzk,feeUs);
+        GymStore.Kind storeKind = readStoreKind();
+
+        gym = new Gym(gymName, maxPeople, Path.of(path),feeCzk,feeUs, storeKind);
+        gym.close();
+    }
+
+    /**
+     * Reads kind of the storage until it is one which is saved, MEMORY gym would be lost at exit
+     * @return FILE or MAPPED
+     */
+    private static GymStore.Kind readStoreKind() {
+        while (true) {
+            System.out.print(gymPrompt.getLanguages().getString("input_gym_store"));
+            String store = sc.nextLine().trim().toUpperCase(Locale.ROOT);
+            if (store.isEmpty()) {
+                return GymStore.Kind.FILE;
+            }
+            if (store.equals(GymStore.Kind.FILE.name()) || store.equals(GymStore.Kind.MAPPED.name())) {
+                return GymStore.Kind.valueOf(store);
+            }
+            System.out.println(gymPrompt.getLanguages().getString("input_gym_store_bad"));
+        }
     }
 
 }
@@ -0,0 +1,41 @@
+package horvath.app;
+
+import horvath.gym.Gym;
+import horvath.gym.GymCodec;
+import horvath.gym.RecordExporter;
+import horvath.gym.User;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+
+/**
+ * Exports records of all members of the gym to one file
+ * <p>
+ * Arguments: gym file, format (TEXT, CSV or JSONL, default CSV), output file
+ * (default records/all with suffix of the format in the gym directory).
+ * @author Marcel Horváth
+ */
+public class ExportRecords {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.out.println("usage: ExportRecords gymFile [TEXT|CSV|JSONL] [output]");
+            return;
+        }
+        RecordExporter.Format format = args.length > 1 ? RecordExporter.Format.valueOf(args[1].toUpperCase(Locale.ROOT)) : RecordExporter.Format.CSV;
+        long start = System.nanoTime();
+        try (Gym gym = GymCodec.loadGym(Path.of(args[0]))) {
+            Path output = args.length > 2 ? Path.of(args[2])
+                    : gym.getGymRoot().toPath().resolve(User.RECORDS_DIR).resolve("all" + format.getSuffix());
+            output.toAbsolutePath().getParent().toFile().mkdirs();
+            int exported;
+            try (FileChannel out = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                exported = gym.exportAllRecords(out, format);
+            }
+            System.out.printf("exported records of %d members to %s in %.1f s%n", exported, output, (System.nanoTime() - start) / 1e9);
+        }
+    }
+}
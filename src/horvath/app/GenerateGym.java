@@ -0,0 +1,38 @@
+package horvath.app;
+
+import horvath.gym.Gym;
+import horvath.gym.GymGenerator;
+import horvath.gym.GymStore;
+
+import java.nio.file.Path;
+import java.util.Locale;
+
+/**
+ * Generates synthetic gym for load tests
+ * <p>
+ * Arguments: directory, members, days, records per member, seed, maximum of people, storage
+ * (defaults 10000 members, 365 days, 40 records, seed 1, 50 people, FILE).
+ * @author Marcel Horváth
+ */
+public class GenerateGym {
+
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.out.println("usage: GenerateGym directory [members] [days] [records] [seed] [maxPeople] [FILE|MAPPED]");
+            return;
+        }
+        Path root = Path.of(args[0]);
+        int members = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+        int days = args.length > 2 ? Integer.parseInt(args[2]) : 365;
+        int records = args.length > 3 ? Integer.parseInt(args[3]) : 40;
+        long seed = args.length > 4 ? Long.parseLong(args[4]) : 1;
+        int maxPeople = args.length > 5 ? Integer.parseInt(args[5]) : 50;
+        GymStore.Kind kind = args.length > 6 ? GymStore.Kind.valueOf(args[6].toUpperCase(Locale.ROOT)) : GymStore.Kind.FILE;
+
+        long start = System.nanoTime();
+        try (Gym gym = GymGenerator.generate(root, root.getFileName().toString(), kind, maxPeople, members, days, records, seed)) {
+            System.out.printf("generated %s: %d members, %d days, %d reservations in %.1f s%n", gym.getGymName(), members, days,
+                    gym.getReservations().values().stream().mapToInt(java.util.List::size).sum(), (System.nanoTime() - start) / 1e9);
+        }
+    }
+}
@@ -2,14 +2,19 @@ package horvath.app;
 
 import horvath.gym.Balance;
 import horvath.gym.Gym;
+import horvath.gym.GymCodec;
 import horvath.gym.GymException;
+import horvath.gym.GymSession;
 import horvath.gym.GymTools;
+import horvath.gym.ReservationBook;
+import horvath.gym.User;
 
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.DateTimeException;
+import java.time.DayOfWeek;
 import java.time.LocalDate;
 import java.util.*;
 
@@ -21,8 +26,8 @@ import java.util.*;
  */
 public class GymApp {
     private static final Scanner sc = new Scanner(System.in);
-    private static boolean isLoggedIn;
     private static Gym gym;
+    private static GymSession session;
 
     private static GymPrompt gymPrompt = GymPrompt.getInstance();
 
@@ -34,7 +39,7 @@ public class GymApp {
                 String gymRoot = sc.nextLine();
                 File gymF = new File(gymRoot);
                 if (gymF.exists() && !gymF.isDirectory()) {
-                    gym = (Gym) GymTools.objectLoader(Path.of(gymRoot));
+                    gym = GymCodec.loadGym(Path.of(gymRoot));
                 } else {
                     throw new GymException("There is no gym instance!");
                 }
@@ -58,7 +63,7 @@ public class GymApp {
     private static void printMenu() {
         System.out.println();
         System.out.println("==="+gym.getGymName()+"===");
-        if (!isLoggedIn) {
+        if (session == null) {
             System.out.println(gymPrompt.getLanguages().getString("menu_registration"));
             System.out.println(gymPrompt.getLanguages().getString("menu_login"));
             System.out.println(gymPrompt.getLanguages().getString("menu_language"));
@@ -74,6 +79,7 @@ public class GymApp {
             System.out.println(gymPrompt.getLanguages().getString("menu_choice9"));
             System.out.println(gymPrompt.getLanguages().getString("menu_choice10"));
             System.out.println(gymPrompt.getLanguages().getString("menu_choice11"));
+            System.out.println(gymPrompt.getLanguages().getString("menu_choice12"));
         }
         System.out.println(gymPrompt.getLanguages().getString("menu_terminate"));
     }
@@ -90,7 +96,7 @@ public class GymApp {
     }
 
     private static boolean serviceChoice(int choice) {
-        if (!isLoggedIn) {
+        if (session == null) {
             switch (choice) {
                 case 0:
                     return true;
@@ -143,6 +149,9 @@ public class GymApp {
                 case 11:
                     logOff();
                     break;
+                case 12:
+                    recurringReservation();
+                    break;
                 default:
                     System.out.println(gymPrompt.getLanguages().getString("menu_choice"));
             }
@@ -152,19 +161,19 @@ public class GymApp {
 
     private static void reservation() {
         try {
-            gym.setCurrentFee(gymPrompt.getCountry());
+            session.setCurrentFee(gymPrompt.getCountry());
             System.out.println(gymPrompt.getLanguages().getString("input_date"));
-            System.out.println(gymPrompt.getLanguages().getString("prompt_price") + gym.getCurrentFee());
+            System.out.println(gymPrompt.getLanguages().getString("prompt_price") + session.getCurrentFee());
             System.out.print(gymPrompt.getLanguages().getString("prompt_day"));
             int day = sc.nextInt();
             System.out.print(gymPrompt.getLanguages().getString("prompt_month"));
             int month = sc.nextInt();
             System.out.print(gymPrompt.getLanguages().getString("prompt_year"));
             int year = sc.nextInt();
-            int result = gym.setReservation(gymPrompt.getCountry(), day, month, year);
+            int result = session.setReservation(gymPrompt.getCountry(), day, month, year);
             switch (result) {
                 case 0:
-                    System.out.println(gymPrompt.getLanguages().getString("debug_reserved_people") + "(" + gym.getReservations().get(LocalDate.of(year, month, day)).size() + "/" + gym.getMaxPeople() + ")");
+                    System.out.println(gymPrompt.getLanguages().getString("debug_reserved_people") + "(" + gym.getOccupancy(LocalDate.of(year, month, day)) + "/" + gym.getMaxPeople() + ")");
                     break;
                 case 1:
                     System.out.println(gymPrompt.getLanguages().getString("user_no_funds"));
@@ -173,7 +182,17 @@ public class GymApp {
                     System.out.println(gymPrompt.getLanguages().getString("user_logged"));
                     break;
                 case 3:
-                    System.out.println(gymPrompt.getLanguages().getString("user_tooManyPeople") + "(" + gym.getReservations().get(LocalDate.of(year, month, day)).size() + "/" + gym.getMaxPeople() + ")");
+                    System.out.println(gymPrompt.getLanguages().getString("user_tooManyPeople") + "(" + gym.getOccupancy(LocalDate.of(year, month, day)) + "/" + gym.getMaxPeople() + ")");
+                    System.out.println(gymPrompt.getLanguages().getString("user_next_free_days") + gym.getFreeDays(LocalDate.of(year, month, day), 5).toString().replaceAll("\\[|\\]", ""));
+                    System.out.print(gymPrompt.getLanguages().getString("user_waitlist_prompt"));
+                    if (sc.nextInt() == 1) {
+                        result = session.reserveOrWait(gymPrompt.getCountry(), day, month, year);
+                        if (result == 0) {
+                            System.out.println(gymPrompt.getLanguages().getString("debug_reserved_people") + "(" + gym.getOccupancy(LocalDate.of(year, month, day)) + "/" + gym.getMaxPeople() + ")");
+                        } else if (result == 4 || result == 5) {
+                            System.out.println(gymPrompt.getLanguages().getString("user_waitlisted") + "(" + gym.getWaiting(LocalDate.of(year, month, day)) + ")");
+                        }
+                    }
                     break;
             }
 
@@ -182,11 +201,54 @@ public class GymApp {
         }
     }
 
+    private static void recurringReservation() {
+        try {
+            session.setCurrentFee(gymPrompt.getCountry());
+            System.out.println(gymPrompt.getLanguages().getString("input_date"));
+            System.out.println(gymPrompt.getLanguages().getString("prompt_price") + session.getCurrentFee());
+            System.out.print(gymPrompt.getLanguages().getString("prompt_day"));
+            int day = sc.nextInt();
+            System.out.print(gymPrompt.getLanguages().getString("prompt_month"));
+            int month = sc.nextInt();
+            System.out.print(gymPrompt.getLanguages().getString("prompt_year"));
+            int year = sc.nextInt();
+            System.out.print(gymPrompt.getLanguages().getString("prompt_weeks"));
+            int weeks = sc.nextInt();
+            sc.nextLine();
+            System.out.print(gymPrompt.getLanguages().getString("prompt_weekdays"));
+            Set<DayOfWeek> weekdays = EnumSet.noneOf(DayOfWeek.class);
+            for (String weekday : sc.nextLine().split(",")) {
+                weekdays.add(DayOfWeek.of(Integer.parseInt(weekday.trim())));
+            }
+            LocalDate from = LocalDate.of(year, month, day);
+            List<LocalDate> days = GymTools.recurringDates(from, from.plusWeeks(weeks).minusDays(1), weekdays);
+            ReservationBook.BatchResult result = session.setReservations(gymPrompt.getCountry(), days);
+            switch (result.result()) {
+                case 0:
+                    System.out.println(gymPrompt.getLanguages().getString("user_batch_reserved") + days.size());
+                    break;
+                case 1:
+                    System.out.println(gymPrompt.getLanguages().getString("user_no_funds"));
+                    break;
+                case 2:
+                    System.out.println(gymPrompt.getLanguages().getString("user_batch_failed") + result.day());
+                    System.out.println(gymPrompt.getLanguages().getString("user_logged"));
+                    break;
+                case 3:
+                    System.out.println(gymPrompt.getLanguages().getString("user_batch_failed") + result.day());
+                    System.out.println(gymPrompt.getLanguages().getString("user_tooManyPeople") + "(" + gym.getOccupancy(result.day()) + "/" + gym.getMaxPeople() + ")");
+                    break;
+            }
+        } catch (InputMismatchException | IllegalArgumentException | DateTimeException ims) {
+            throw new GymException("Bad input", 103);
+        }
+    }
+
     private static void addBalance() {
         try {
             System.out.println(gymPrompt.getLanguages().getString("user_addBalance"));
             System.out.print(gymPrompt.getLanguages().getString("user_input_balance"));
-            gym.getUser().setBalance(sc.nextInt());
+            session.addBalance(sc.nextInt());
             System.out.println(gymPrompt.getLanguages().getString("user_balance_added"));
         } catch (InputMismatchException | IllegalArgumentException ims) {
             throw new GymException("Bad input", 103);
@@ -195,11 +257,11 @@ public class GymApp {
 
     private static void balance() {
         System.out.print(gymPrompt.getLanguages().getString("user_balance"));
-        System.out.printf("%.2f", gym.getUser().getBalance());
+        System.out.printf("%.2f", session.getUser().getBalance());
     }
 
     private static void myReservations() {
-        System.out.println(gymPrompt.getLanguages().getString("user_reservation") + gym.getUser().getReservationsToString());
+        System.out.println(gymPrompt.getLanguages().getString("user_reservation") + session.getReservationsToString());
     }
 
     private static void addRecord() {
@@ -208,7 +270,7 @@ public class GymApp {
             String exercise = sc.nextLine().toUpperCase(Locale.ROOT);
             System.out.print(gymPrompt.getLanguages().getString("user_input_record2"));
             int weight = sc.nextInt();
-            gym.getUser().setRecords(exercise, weight);
+            session.addRecord(exercise, weight);
             System.out.println(gymPrompt.getLanguages().getString("user_record_added"));
         } catch (InputMismatchException | IllegalArgumentException ims) {
             throw new GymException("Bad input", 103);
@@ -218,13 +280,12 @@ public class GymApp {
 
     private static void showRecords() {
         System.out.print(gymPrompt.getLanguages().getString("prompt_choose_sort"));
-        gym.getUser().sortRecords(sc.nextInt());
-        System.out.println(gym.getUser().getRecordsToString());
+        System.out.println(session.showRecords(sc.nextInt()));
     }
 
     private static void printRecords() {
         System.out.println(gymPrompt.getLanguages().getString("user_record_saved"));
-        gym.getUser().printRecords(gym.getGymRoot());
+        session.printRecords();
     }
 
     private static void printHelp() {
@@ -233,14 +294,14 @@ public class GymApp {
 
     private static void changeLanguage() {
         gymPrompt.changeLanguage();
-        if (isLoggedIn) {
-            gym.getUser().convertBalance(gymPrompt.getCountry(), Balance.USD_CZK_RATE);
+        if (session != null) {
+            session.convertBalance(gymPrompt.getCountry(), Balance.USD_CZK_RATE);
         }
     }
 
     private static void logOff() {
-        gym.logOff();
-        isLoggedIn = false;
+        session.logOff();
+        session = null;
         System.out.println(gymPrompt.getLanguages().getString("debug_saving"));
         System.out.println(gymPrompt.getLanguages().getString("user_logged_out"));
     }
@@ -254,7 +315,7 @@ public class GymApp {
             int month = sc.nextInt();
             System.out.print(gymPrompt.getLanguages().getString("prompt_year"));
             int year = sc.nextInt();
-            boolean deleted = gym.deleteReservation(gymPrompt.getCountry(), day, month, year);
+            boolean deleted = session.deleteReservation(gymPrompt.getCountry(), day, month, year);
             System.out.println(deleted ? gymPrompt.getLanguages().getString("debug_reservation_removed") : gymPrompt.getLanguages().getString("debug_not_reserved"));
         } catch (InputMismatchException | IllegalArgumentException ims) {
             throw new GymException("Bad input", 103);
@@ -264,16 +325,16 @@ public class GymApp {
     private static void logIn() {
         System.out.println(gymPrompt.getLanguages().getString("input_name"));
         String name = sc.nextLine().toLowerCase(Locale.ROOT);
-        if (!gym.loadUser(name)) {
+        User user = gym.loadUser(name);
+        if (user == null) {
             System.out.println(gymPrompt.getLanguages().getString("debug_user_notFound"));
-            isLoggedIn = false;
             return;
         }
 
         System.out.println(gymPrompt.getLanguages().getString("input_password"));
         String password = sc.nextLine();
-        isLoggedIn = gym.checkPassword(password);
-        if (!isLoggedIn) {
+        session = gym.checkPassword(user, password);
+        if (session == null) {
             System.out.println(gymPrompt.getLanguages().getString("debug_wrong_password"));
             return;
         }
@@ -290,21 +351,23 @@ public class GymApp {
             GymTools.Gender gender = GymTools.Gender.valueOf(sc.nextLine().toUpperCase(Locale.ROOT));
             System.out.println(gymPrompt.getLanguages().getString("prompt_password"));
             String password = sc.nextLine();
-            gym.registerUser(name, lastName, gender, password);
-            isLoggedIn = true;
+            session = gym.registerUser(name, lastName, gender, password);
         } catch (InputMismatchException | IllegalArgumentException ims) {
             throw new GymException("Bad input", 103);
         }
     }
 
     /**
-     * logs off the user, if the app is terminated
+     * Saves the logged user and writes all queued changes, when the app is terminated
      */
     public static Thread savingHook = new Thread(() -> {
-        if (isLoggedIn) {
+        if (session != null) {
             System.out.println(gymPrompt.getLanguages().getString("debug_saving"));
-            gym.saveUser();
-            isLoggedIn = false;
+            session.save();
+            session = null;
+        }
+        if (gym != null) {
+            gym.close();
         }
     });
 }
@@ -0,0 +1,30 @@
+package horvath.app;
+
+import horvath.gym.Gym;
+import horvath.gym.GymCodec;
+import horvath.gym.GymReport;
+
+import java.nio.file.Path;
+
+/**
+ * Prints gym-wide report: occupancy heatmap, revenue and exercise leaderboards
+ * <p>
+ * Arguments: gym file, number of members in every leaderboard (default 5).
+ * @author Marcel Horváth
+ */
+public class ReportGym {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.out.println("usage: ReportGym gymFile [leaderboardSize]");
+            return;
+        }
+        int leaderboardSize = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        try (Gym gym = GymCodec.loadGym(Path.of(args[0]))) {
+            long start = System.nanoTime();
+            GymReport report = GymReport.create(gym, leaderboardSize);
+            System.out.print(report);
+            System.out.printf("report made in %.1f s%n", (System.nanoTime() - start) / 1e9);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package horvath.bench;
+
+import horvath.gym.ReservationBook;
+
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hammers one popular date from many threads and checks the day is never overbooked
+ * <p>
+ * Arguments: threads, max people, attempts per thread (defaults 48, 30, 500).
+ * Exits with status 1 if the capacity was broken.
+ *
+ * @author Marcel Horváth
+ */
+public class BookingStress {
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 48;
+        int maxPeople = args.length > 1 ? Integer.parseInt(args[1]) : 30;
+        int attempts = args.length > 2 ? Integer.parseInt(args[2]) : 500;
+        LocalDate popular = LocalDate.of(2022, 6, 13);
+
+        boolean ok = rush(threads, maxPeople, attempts, popular);
+        ok &= churn(threads, maxPeople, attempts, popular);
+        System.out.println(ok ? "OK" : "FAILED");
+        if (!ok) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Every thread tries to book the date for new users, exactly maxPeople bookings must succeed
+     */
+    private static boolean rush(int threads, int maxPeople, int attempts, LocalDate datum) throws InterruptedException {
+        ReservationBook book = new ReservationBook(maxPeople);
+        AtomicInteger reserved = new AtomicInteger();
+        run(threads, () -> {
+            for (int i = 0; i < attempts; i++) {
+                if (book.book(datum, UUID.randomUUID()) == ReservationBook.RESERVED) {
+                    reserved.incrementAndGet();
+                }
+            }
+        });
+        int occupancy = book.getOccupancy(datum);
+        System.out.println("rush: " + reserved.get() + " bookings, occupancy " + occupancy + "/" + maxPeople);
+        return reserved.get() == maxPeople && occupancy == maxPeople;
+    }
+
+    /**
+     * Threads book and cancel the date for a shared pool of users, bookings minus cancellations must match the occupancy
+     */
+    private static boolean churn(int threads, int maxPeople, int attempts, LocalDate datum) throws InterruptedException {
+        ReservationBook book = new ReservationBook(maxPeople);
+        List<UUID> pool = new ArrayList<>();
+        for (int i = 0; i < maxPeople * 3; i++) {
+            pool.add(UUID.randomUUID());
+        }
+        AtomicInteger balance = new AtomicInteger();
+        AtomicInteger overbooked = new AtomicInteger();
+        run(threads, () -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int i = 0; i < attempts; i++) {
+                UUID id = pool.get(random.nextInt(pool.size()));
+                if (random.nextBoolean()) {
+                    if (book.book(datum, id) == ReservationBook.RESERVED) {
+                        balance.incrementAndGet();
+                    }
+                } else if (book.cancel(datum, id)) {
+                    balance.decrementAndGet();
+                }
+                if (book.getOccupancy(datum) > maxPeople) {
+                    overbooked.incrementAndGet();
+                }
+            }
+        });
+        List<UUID> reserved = book.snapshot().getOrDefault(datum, List.of());
+        boolean unique = new HashSet<>(reserved).size() == reserved.size();
+        System.out.println("churn: occupancy " + book.getOccupancy(datum) + "/" + maxPeople + ", expected " + balance.get()
+                + ", overbooked " + overbooked.get() + ", duplicates " + !unique);
+        return book.getOccupancy(datum) == balance.get() && overbooked.get() == 0 && unique;
+    }
+
+    private static void run(int threads, Runnable task) throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        for (int i = 0; i < threads; i++) {
+            pool.execute(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                task.run();
+            });
+        }
+        start.countDown();
+        pool.shutdown();
+        pool.awaitTermination(1, TimeUnit.MINUTES);
+    }
+}
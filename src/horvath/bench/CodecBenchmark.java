@@ -0,0 +1,163 @@
+package horvath.bench;
+
+import horvath.gym.*;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.*;
+
+/**
+ * Compares encode/decode throughput of the binary codec and Java serialization
+ * <p>
+ * Arguments: number of users, reserved days, users per day (defaults 2000, 365, 30)
+ *
+ * @author Marcel Horváth
+ */
+public class CodecBenchmark {
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        int users = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int days = args.length > 1 ? Integer.parseInt(args[1]) : 365;
+        int perDay = args.length > 2 ? Integer.parseInt(args[2]) : 30;
+        Random random = new Random(42);
+
+        // cost of the password hash is not measured here
+        Credentials credentials = new Credentials(Credentials.MIN_ITERATIONS, 0);
+        List<User> members = new ArrayList<>(users);
+        for (int i = 0; i < users; i++) {
+            User user = new User("name" + i, "last" + i, random.nextBoolean() ? GymTools.Gender.M : GymTools.Gender.F, "pw" + i, credentials);
+            user.setBalance(1000);
+            for (int d = 0; d < 50; d++) {
+                user.setReservations(LocalDate.of(2022, 1, 1).plusDays(random.nextInt(days)), 1);
+            }
+            for (int r = 0; r < 40; r++) {
+                user.setRecords("EXERCISE" + random.nextInt(8), 20 + random.nextInt(200));
+            }
+            members.add(user);
+        }
+        HashMap<LocalDate, List<UUID>> reservations = new HashMap<>();
+        for (int d = 0; d < days; d++) {
+            List<UUID> ids = new ArrayList<>();
+            for (int p = 0; p < perDay; p++) {
+                ids.add(members.get(random.nextInt(users)).getId());
+            }
+            reservations.put(LocalDate.of(2022, 1, 1).plusDays(d), ids);
+        }
+
+        checkGymNames();
+        System.out.println("users: " + users + ", days: " + days + ", users per day: " + perDay);
+        for (int round = 0; round < ROUNDS; round++) {
+            boolean print = round == ROUNDS - 1;
+            benchUsersBinary(members, print);
+            benchUsersSerialized(members, print);
+            benchReservationsBinary(reservations, print);
+            benchReservationsSerialized(reservations, print);
+        }
+    }
+
+    /**
+     * Encodes gyms with names around the size of the first buffer, every length has to round trip
+     */
+    private static void checkGymNames() throws IOException, ClassNotFoundException {
+        Path root = Files.createTempDirectory("gym-names");
+        try {
+            for (int length = 1; length <= 200; length++) {
+                String name = "g".repeat(length);
+                try (Gym gym = new Gym(name, 5, root, 100, 5, GymStore.Kind.MEMORY)) {
+                    Gym decoded = GymCodec.decodeGym(GymCodec.encodeGym(gym));
+                    if (!decoded.getGymName().equals(name) || decoded.getMaxPeople() != 5) {
+                        throw new IllegalStateException("gym name of length " + length + " was not decoded");
+                    }
+                    decoded.close();
+                }
+            }
+        } finally {
+            StoreBenchmark.deleteTree(root);
+        }
+        System.out.println("gym names 1-200 characters: ok");
+    }
+
+    private static void benchUsersBinary(List<User> members, boolean print) {
+        long bytes = 0;
+        long start = System.nanoTime();
+        List<ByteBuffer> encoded = new ArrayList<>(members.size());
+        for (User user : members) {
+            ByteBuffer buffer = GymCodec.encodeUser(user);
+            bytes += buffer.remaining();
+            encoded.add(buffer);
+        }
+        long encodeTime = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (ByteBuffer buffer : encoded) {
+            GymCodec.decodeUser(buffer);
+        }
+        long decodeTime = System.nanoTime() - start;
+        report(print, "users binary", members.size(), bytes, encodeTime, decodeTime);
+    }
+
+    private static void benchUsersSerialized(List<User> members, boolean print) throws IOException, ClassNotFoundException {
+        long bytes = 0;
+        long start = System.nanoTime();
+        List<byte[]> encoded = new ArrayList<>(members.size());
+        for (User user : members) {
+            byte[] data = serialize(user);
+            bytes += data.length;
+            encoded.add(data);
+        }
+        long encodeTime = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (byte[] data : encoded) {
+            deserialize(data);
+        }
+        long decodeTime = System.nanoTime() - start;
+        report(print, "users serialized", members.size(), bytes, encodeTime, decodeTime);
+    }
+
+    private static void benchReservationsBinary(HashMap<LocalDate, List<UUID>> reservations, boolean print) {
+        long start = System.nanoTime();
+        ByteBuffer buffer = GymCodec.encodeReservations(reservations);
+        long encodeTime = System.nanoTime() - start;
+        int bytes = buffer.remaining();
+        start = System.nanoTime();
+        GymCodec.decodeReservations(buffer);
+        long decodeTime = System.nanoTime() - start;
+        report(print, "reservations binary", 1, bytes, encodeTime, decodeTime);
+    }
+
+    private static void benchReservationsSerialized(HashMap<LocalDate, List<UUID>> reservations, boolean print) throws IOException, ClassNotFoundException {
+        long start = System.nanoTime();
+        byte[] data = serialize(reservations);
+        long encodeTime = System.nanoTime() - start;
+        start = System.nanoTime();
+        deserialize(data);
+        long decodeTime = System.nanoTime() - start;
+        report(print, "reservations serialized", 1, data.length, encodeTime, decodeTime);
+    }
+
+    private static byte[] serialize(Object obj) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(obj);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Object deserialize(byte[] data) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data))) {
+            return in.readObject();
+        }
+    }
+
+    private static void report(boolean print, String name, int objects, long bytes, long encodeTime, long decodeTime) {
+        if (!print) {
+            return;
+        }
+        System.out.printf("%-24s %10d bytes  encode %8.1f MB/s %10.0f obj/s  decode %8.1f MB/s %10.0f obj/s%n", name, bytes,
+                bytes / (encodeTime / 1e9) / 1e6, objects / (encodeTime / 1e9),
+                bytes / (decodeTime / 1e9) / 1e6, objects / (decodeTime / 1e9));
+    }
+}
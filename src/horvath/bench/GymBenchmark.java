@@ -0,0 +1,141 @@
+package horvath.bench;
+
+import horvath.gym.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.*;
+
+/**
+ * Benchmark suite of booking, login, records and persistence paths
+ * <p>
+ * Works like a small JMH: every benchmark runs warmup iterations and then measured iterations
+ * of fixed time, the score is average time of one operation and the error is standard deviation
+ * of the iterations. The gym is made by {@link GymGenerator} with a fixed seed.
+ * Arguments: members, days, records per member, part of benchmark name to run, iterations of the password hash
+ * (defaults 2000, 365, 40, all benchmarks, 10000). Cost of the default hash is measured by login.hashDefaultCost.
+ *
+ * @author Marcel Horváth
+ */
+public class GymBenchmark {
+    private static final int WARMUP_ITERATIONS = 3;
+    private static final int ITERATIONS = 5;
+    private static final long ITERATION_TIME = 1_000_000_000L;
+    private static final int MAX_PEOPLE = 50;
+    private static final long SEED = 7;
+    /** Results are stored here, so the JIT can not remove the measured code */
+    static volatile Object sink;
+
+    private interface Operation {
+        void run() throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int members = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int days = args.length > 1 ? Integer.parseInt(args[1]) : 365;
+        int records = args.length > 2 ? Integer.parseInt(args[2]) : 40;
+        String filter = args.length > 3 ? args[3] : "";
+        int hashIterations = args.length > 4 ? Integer.parseInt(args[4]) : 10_000;
+        System.out.println("members: " + members + ", days: " + days + ", records per member: " + records);
+
+        Path root = Files.createTempDirectory("gym-bench");
+        Random random = new Random(SEED);
+        try (Gym gym = GymGenerator.generate(root, "bench", GymStore.Kind.FILE, MAX_PEOPLE, members, days, records, SEED, hashIterations)) {
+            List<String> logins = gym.getStore().listUsers();
+            List<GymSession> sessions = new ArrayList<>(logins.size());
+            for (String login : logins) {
+                sessions.add(gym.checkPassword(gym.loadUser(login), GymGenerator.PASSWORD));
+            }
+            User recordsOwner = sessions.get(0).getUser();
+            User recordsTarget = new User("records", "target", GymTools.Gender.F, GymGenerator.PASSWORD);
+            Path objectFile = root.resolve("object.acc");
+            GymTools.writeObjectToDisk(recordsOwner, objectFile);
+            int[] counter = new int[1];
+
+            System.out.printf("%-30s %5s %4s %12s %10s  %s%n", "Benchmark", "Mode", "Cnt", "Score", "Error", "Units");
+            run(filter, "booking.reserveAndCancel", () -> {
+                GymSession session = sessions.get(random.nextInt(sessions.size()));
+                LocalDate datum = GymGenerator.FIRST_DAY.plusDays(random.nextInt(days));
+                int result = session.setReservation("CZ", datum.getDayOfMonth(), datum.getMonthValue(), datum.getYear());
+                if (result == ReservationBook.RESERVED) {
+                    session.deleteReservation("CZ", datum.getDayOfMonth(), datum.getMonthValue(), datum.getYear());
+                }
+                sink = result;
+            });
+            run(filter, "login.loadAndCheckPassword", () -> {
+                User user = gym.loadUser(logins.get(random.nextInt(logins.size())));
+                sink = gym.checkPassword(user, GymGenerator.PASSWORD);
+            });
+            run(filter, "login.loadUserCached", () -> sink = gym.loadUser(logins.get(random.nextInt(logins.size()))));
+            run(filter, "login.loadUserFromStore", () -> sink = gym.getStore().loadUser(logins.get(random.nextInt(logins.size()))));
+            String token = gym.checkPassword(gym.loadUser(logins.get(0)), GymGenerator.PASSWORD).getToken();
+            run(filter, "login.resumeToken", () -> sink = gym.resume(token));
+            String defaultHash = Credentials.DEFAULT.hash(GymGenerator.PASSWORD);
+            run(filter, "login.hashDefaultCost", () -> sink = Credentials.DEFAULT.verify(GymGenerator.PASSWORD, defaultHash));
+            run(filter, "records.setRecords", () -> {
+                if (counter[0]++ % records == 0) {
+                    recordsTarget.getExerciseRecords().clear();
+                }
+                recordsTarget.setRecords(GymGenerator.EXERCISES[counter[0] % GymGenerator.EXERCISES.length], random.nextInt(300));
+            });
+            run(filter, "records.sortRecords", () -> {
+                recordsOwner.sortRecords(1 + counter[0]++ % 2);
+                sink = recordsOwner.getRecordsToString();
+            });
+            run(filter, "records.getRecordsToString", () -> sink = recordsOwner.getRecordsToString());
+            run(filter, "records.progress", () -> sink = sessions.get(0).getProgress());
+            run(filter, "persistence.writeObjectToDisk", () -> GymTools.writeObjectToDisk(recordsOwner, objectFile));
+            run(filter, "persistence.objectLoader", () -> sink = GymTools.objectLoader(objectFile));
+            System.out.println(gym.getAccountCache());
+        } finally {
+            StoreBenchmark.deleteTree(root);
+        }
+    }
+
+    /**
+     * Runs warmup and measured iterations and prints average time of one operation
+     */
+    private static void run(String filter, String name, Operation operation) throws Exception {
+        if (!name.contains(filter)) {
+            return;
+        }
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            iteration(operation);
+        }
+        double[] scores = new double[ITERATIONS];
+        double sum = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            scores[i] = iteration(operation);
+            sum += scores[i];
+        }
+        double mean = sum / ITERATIONS;
+        double variance = 0;
+        for (double score : scores) {
+            variance += (score - mean) * (score - mean);
+        }
+        System.out.printf("%-30s %5s %4d %12.3f %10.3f  us/op%n", name, "avgt", ITERATIONS, mean, Math.sqrt(variance / (ITERATIONS - 1)));
+    }
+
+    /**
+     * Calls the operation in growing batches until the iteration time passes
+     * @return average time of one operation in microseconds
+     */
+    private static double iteration(Operation operation) throws Exception {
+        long operations = 0;
+        int batch = 1;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            for (int i = 0; i < batch; i++) {
+                operation.run();
+            }
+            operations += batch;
+            elapsed = System.nanoTime() - start;
+            if (elapsed < ITERATION_TIME / 100) {
+                batch *= 2;
+            }
+        } while (elapsed < ITERATION_TIME);
+        return elapsed / 1e3 / operations;
+    }
+}
@@ -0,0 +1,84 @@
+package horvath.bench;
+
+import horvath.gym.GymTools;
+import horvath.gym.ReservationBook;
+import horvath.gym.User;
+
+import java.time.LocalDate;
+import java.util.*;
+
+/**
+ * Measures cost of duplicate check, cancel and rebooking as users history and day capacity grow
+ * <p>
+ * Hashed structures should stay flat, lists used before grow linearly.
+ *
+ * @author Marcel Horváth
+ */
+public class MembershipBenchmark {
+    private static final int[] SIZES = {10, 100, 1000, 10000, 100000};
+    private static final int OPERATIONS = 200000;
+
+    public static void main(String[] args) {
+        LocalDate first = LocalDate.of(2000, 1, 1);
+        Random random = new Random(3);
+        System.out.println("user history     hash set ns/op     ArrayList ns/op");
+        for (int size : SIZES) {
+            User user = new User("bench", "user", GymTools.Gender.M, "pw");
+            List<LocalDate> list = new ArrayList<>();
+            for (int i = 0; i < size; i++) {
+                user.setReservations(first.plusDays(i), 0);
+                list.add(first.plusDays(i));
+            }
+            int operations = Math.min(OPERATIONS, 20_000_000 / size);
+            long start = System.nanoTime();
+            for (int i = 0; i < operations; i++) {
+                LocalDate datum = first.plusDays(random.nextInt(size));
+                if (user.hasReservation(datum)) {
+                    user.removeReservation(datum, 0);
+                    user.setReservations(datum, 0);
+                }
+            }
+            double setTime = (System.nanoTime() - start) / (double) operations;
+            start = System.nanoTime();
+            for (int i = 0; i < operations; i++) {
+                LocalDate datum = first.plusDays(random.nextInt(size));
+                if (list.contains(datum)) {
+                    list.remove(datum);
+                    list.add(datum);
+                }
+            }
+            double listTime = (System.nanoTime() - start) / (double) operations;
+            System.out.printf("%12d %20.1f %19.1f%n", size, setTime, listTime);
+        }
+
+        System.out.println("people per day   ReservationBook ns/op   ArrayList ns/op");
+        for (int size : SIZES) {
+            ReservationBook book = new ReservationBook(size);
+            List<UUID> list = new ArrayList<>();
+            UUID[] ids = new UUID[size];
+            for (int i = 0; i < size; i++) {
+                ids[i] = UUID.randomUUID();
+                book.book(first, ids[i]);
+                list.add(ids[i]);
+            }
+            int operations = Math.min(OPERATIONS, 20_000_000 / size);
+            long start = System.nanoTime();
+            for (int i = 0; i < operations; i++) {
+                UUID id = ids[random.nextInt(size)];
+                if (book.cancel(first, id)) {
+                    book.book(first, id);
+                }
+            }
+            double bookTime = (System.nanoTime() - start) / (double) operations;
+            start = System.nanoTime();
+            for (int i = 0; i < operations; i++) {
+                UUID id = ids[random.nextInt(size)];
+                if (list.remove(id) && !list.contains(id)) {
+                    list.add(id);
+                }
+            }
+            double listTime = (System.nanoTime() - start) / (double) operations;
+            System.out.printf("%14d %23.1f %17.1f%n", size, bookTime, listTime);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package horvath.bench;
+
+import horvath.gym.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Measures how the gym-wide report scales with number of threads
+ * <p>
+ * The report runs in fork-join pools of 1, 2, 4 ... threads up to the number of processors.
+ * Arguments: members, days, records per member (defaults 10000, 365, 40).
+ *
+ * @author Marcel Horváth
+ */
+public class ReportBenchmark {
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        int members = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int days = args.length > 1 ? Integer.parseInt(args[1]) : 365;
+        int records = args.length > 2 ? Integer.parseInt(args[2]) : 40;
+        int processors = Runtime.getRuntime().availableProcessors();
+        Path root = Files.createTempDirectory("gym-report");
+        try (Gym gym = GymGenerator.generate(root, "report", GymStore.Kind.FILE, 50, members, days, records, 7)) {
+            System.out.println("members: " + members + ", processors: " + processors);
+            double single = 0;
+            for (int threads = 1; ; threads = Math.min(threads * 2, processors)) {
+                ForkJoinPool pool = new ForkJoinPool(threads);
+                try {
+                    pool.submit(() -> GymReport.create(gym, 5)).get();
+                    long best = Long.MAX_VALUE;
+                    for (int i = 0; i < ROUNDS; i++) {
+                        long start = System.nanoTime();
+                        pool.submit(() -> GymReport.create(gym, 5)).get();
+                        best = Math.min(best, System.nanoTime() - start);
+                    }
+                    double ms = best / 1e6;
+                    single = threads == 1 ? ms : single;
+                    System.out.printf("threads %3d: %10.1f ms, speedup %5.2f%n", threads, ms, single / ms);
+                } finally {
+                    pool.shutdown();
+                }
+                if (threads == processors) {
+                    break;
+                }
+            }
+        } finally {
+            StoreBenchmark.deleteTree(root);
+        }
+    }
+}
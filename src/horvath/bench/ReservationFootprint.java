@@ -0,0 +1,75 @@
+package horvath.bench;
+
+import horvath.gym.ReservationBook;
+
+import java.time.LocalDate;
+import java.util.*;
+
+/**
+ * Compares heap used by reservations in HashMap of lists and in the primitive index
+ * <p>
+ * Arguments: members, days, members per day (defaults 20000, 3650, 274, about 1M reservations).
+ * The old structure is measured together with the copy of dates kept in every user.
+ *
+ * @author Marcel Horváth
+ */
+public class ReservationFootprint {
+
+    public static void main(String[] args) {
+        int members = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int days = args.length > 1 ? Integer.parseInt(args[1]) : 3650;
+        int perDay = args.length > 2 ? Integer.parseInt(args[2]) : 274;
+        LocalDate first = LocalDate.of(2015, 1, 1);
+        Random random = new Random(7);
+        UUID[] ids = new UUID[members];
+        for (int i = 0; i < members; i++) {
+            ids[i] = new UUID(random.nextLong(), random.nextLong());
+        }
+        int[][] plan = new int[days][perDay];
+        for (int d = 0; d < days; d++) {
+            int start = random.nextInt(members);
+            for (int p = 0; p < perDay; p++) {
+                plan[d][p] = (start + p) % members;
+            }
+        }
+        System.out.println("reservations: " + (long) days * perDay + ", members: " + members + ", days: " + days);
+
+        long before = usedHeap();
+        HashMap<LocalDate, List<UUID>> reservations = new HashMap<>();
+        Map<UUID, List<LocalDate>> userReservations = new HashMap<>();
+        for (int d = 0; d < days; d++) {
+            LocalDate datum = first.plusDays(d);
+            List<UUID> reserved = new ArrayList<>();
+            for (int member : plan[d]) {
+                UUID id = new UUID(ids[member].getMostSignificantBits(), ids[member].getLeastSignificantBits());
+                reserved.add(id);
+                userReservations.computeIfAbsent(ids[member], k -> new ArrayList<>()).add(first.plusDays(d));
+            }
+            reservations.put(datum, reserved);
+        }
+        long mapBytes = usedHeap() - before;
+        System.out.printf("HashMap<LocalDate, List<UUID>> + user lists: %8.1f MB%n", mapBytes / 1e6);
+        reservations = null;
+        userReservations = null;
+
+        before = usedHeap();
+        ReservationBook book = new ReservationBook(perDay);
+        for (int d = 0; d < days; d++) {
+            LocalDate datum = first.plusDays(d);
+            for (int member : plan[d]) {
+                book.book(datum, ids[member]);
+            }
+        }
+        long indexBytes = usedHeap() - before;
+        System.out.printf("ReservationIndex:                            %8.1f MB%n", indexBytes / 1e6);
+        System.out.printf("ratio: %.1fx, occupancy check %d%n", (double) mapBytes / indexBytes, book.getOccupancy(first));
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,107 @@
+package horvath.bench;
+
+import horvath.gym.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.*;
+
+/**
+ * Measures opening of a gym with several years of reservations
+ * <p>
+ * Arguments: years of reservations, members, users per day (defaults 5, 2000, 50).
+ * Compares decoding of the whole reservation snapshot with opening it (mapped where the system
+ * allows replacing mapped files) and decoding days when they are used, then opens the whole gym from its gym file and checks that the gym file
+ * is not written again. Times are medians, the files are in the page cache after the first round.
+ *
+ * @author Marcel Horváth
+ */
+public class StartupBenchmark {
+    private static final int ROUNDS = 15;
+
+    public static void main(String[] args) throws Exception {
+        int years = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        int members = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        int perDay = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+        Path root = Files.createTempDirectory("gym-startup");
+        try {
+            run(root, years, members, perDay);
+        } finally {
+            StoreBenchmark.deleteTree(root);
+        }
+    }
+
+    private static void run(Path root, int years, int members, int perDay) throws Exception {
+        new Gym("startup", perDay, root, 100, 5).close();
+        Random random = new Random(5);
+        List<UUID> ids = new ArrayList<>(members);
+        for (int i = 0; i < members; i++) {
+            ids.add(new UUID(random.nextLong(), random.nextLong()));
+        }
+        LocalDate first = LocalDate.of(2020, 1, 1);
+        int days = years * 365;
+        HashMap<LocalDate, List<UUID>> reservations = new HashMap<>();
+        for (int d = 0; d < days; d++) {
+            List<UUID> day = new ArrayList<>(perDay);
+            for (int p = 0; p < perDay; p++) {
+                day.add(ids.get((d * 31 + p * 7) % members));
+            }
+            reservations.put(first.plusDays(d), day);
+        }
+        Path snapshot = root.resolve(Gym.RESERVATION_FILE);
+        GymCodec.saveReservations(reservations, snapshot);
+        reservations = null;
+        System.out.println("years: " + years + ", days: " + days + ", bookings: " + (long) days * perDay
+                + ", snapshot " + Files.size(snapshot) / 1024 + " kB");
+
+        long[] eager = new long[ROUNDS];
+        long[] lazy = new long[ROUNDS];
+        long[] touchDay = new long[ROUNDS];
+        long[] touchAll = new long[ROUNDS];
+        long[] open = new long[ROUNDS];
+        LocalDate today = first.plusDays(days - 30);
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            new ReservationBook(perDay).load(GymCodec.loadReservations(snapshot));
+            eager[round] = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            ReservationBook book = new ReservationBook(perDay);
+            book.load(ReservationSnapshot.open(snapshot));
+            lazy[round] = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            book.getFreePlaces(today, 31);
+            book.isReserved(today, ids.get(0));
+            touchDay[round] = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            book.getReservationsOf(ids.get(0));
+            touchAll[round] = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            try (Gym gym = GymCodec.loadGym(root.resolve("startup" + Gym.GYM_SUFFIX))) {
+                gym.getOccupancy(today);
+            }
+            open[round] = System.nanoTime() - start;
+        }
+        System.out.printf("%-32s %10.2f ms%n", "decode whole snapshot", median(eager));
+        System.out.printf("%-32s %10.2f ms%n", "open snapshot lazily", median(lazy));
+        System.out.printf("%-32s %10.3f ms%n", "first month and one day used", median(touchDay));
+        System.out.printf("%-32s %10.2f ms%n", "all days used", median(touchAll));
+        System.out.printf("%-32s %10.2f ms%n", "open gym from gym file", median(open));
+
+        Path gymFile = root.resolve("startup" + Gym.GYM_SUFFIX);
+        long modified = Files.getLastModifiedTime(gymFile).toMillis();
+        Thread.sleep(20);
+        new Gym("startup", perDay, root, 100, 5).close();
+        System.out.println("gym file written again: " + (Files.getLastModifiedTime(gymFile).toMillis() != modified));
+    }
+
+    private static double median(long[] times) {
+        long[] sorted = times.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2] / 1e6;
+    }
+}
@@ -0,0 +1,87 @@
+package horvath.bench;
+
+import horvath.gym.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Runs the same workload against every kind of gym storage
+ * <p>
+ * Arguments: users, reservations per user (defaults 2000, 20).
+ * Measures registration, booking, saving users, login and loading of reservations.
+ * Saving includes flush of all queued changes.
+ *
+ * @author Marcel Horváth
+ */
+public class StoreBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        int users = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int perUser = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        System.out.println("users: " + users + ", reservations per user: " + perUser);
+        System.out.println("store      register ms    book ms    save ms   login ms  load res. ms");
+        for (int round = 0; round < 2; round++) {
+            for (GymStore.Kind kind : GymStore.Kind.values()) {
+                run(kind, users, perUser, round == 1);
+            }
+        }
+    }
+
+    private static void run(GymStore.Kind kind, int users, int perUser, boolean print) throws IOException {
+        Path root = Files.createTempDirectory("gym-bench");
+        Random random = new Random(11);
+        try (Gym gym = new Gym("bench", users, root, 100, 5, kind)) {
+            long start = System.nanoTime();
+            List<GymSession> sessions = new ArrayList<>(users);
+            for (int i = 0; i < users; i++) {
+                GymSession session = gym.registerUser("name" + i, "last" + i, GymTools.Gender.M, "pw");
+                session.addBalance(perUser * 100);
+                sessions.add(session);
+            }
+            long register = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (GymSession session : sessions) {
+                for (int r = 0; r < perUser; r++) {
+                    session.setReservation("CZ", 1 + random.nextInt(28), 1 + random.nextInt(12), 2023);
+                }
+            }
+            long book = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (GymSession session : sessions) {
+                session.save();
+            }
+            gym.flush();
+            long save = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < users; i++) {
+                if (gym.loadUser("name" + i + "last" + i) == null) {
+                    throw new IllegalStateException("user was not saved");
+                }
+            }
+            long login = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            gym.getStore().loadReservations();
+            long load = System.nanoTime() - start;
+
+            if (print) {
+                System.out.printf("%-8s %12.1f %10.1f %10.1f %10.1f %13.1f%n", kind, register / 1e6, book / 1e6,
+                        save / 1e6, login / 1e6, load / 1e6);
+            }
+        } finally {
+            deleteTree(root);
+        }
+    }
+
+    static void deleteTree(Path root) throws IOException {
+        try (var paths = Files.walk(root)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
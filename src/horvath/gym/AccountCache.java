@@ -0,0 +1,148 @@
+package horvath.gym;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of loaded users with least recently used eviction, keyed by login
+ * <p>
+ * Users are put here when they are loaded and whenever they are queued for saving, so the cache
+ * always has the newest state, the same object a session works with. The storage is checked
+ * for changes made by somebody else at most once every CHECK_INTERVAL milliseconds, by its
+ * modification stamp. The cache is emptied when the stamp changed without a write of the gym.
+ *
+ * @author Marcel Horváth
+ */
+public class AccountCache {
+    public static final int DEFAULT_CAPACITY = 4096;
+    /** Shortest time in milliseconds between two checks of the storage */
+    public static final long CHECK_INTERVAL = 1000;
+    private final int capacity;
+    private final LinkedHashMap<String, User> users;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+    /** Modification stamp of the storage the cached users belong to */
+    private long stamp;
+    private long checked;
+
+    /**
+     * @param capacity most users kept at once, 0 turns the cache off
+     */
+    public AccountCache(int capacity) {
+        if (capacity < 0) {
+            throw new GymException("Bad input", 103, "capacity can not be negative");
+        }
+        this.capacity = capacity;
+        this.users = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, User> eldest) {
+                if (size() > AccountCache.this.capacity) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Gives cached user
+     * @param login login of the user
+     * @return user, null if the user is not cached
+     */
+    public synchronized User get(String login) {
+        User user = users.get(login);
+        if (user == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return user;
+    }
+
+    /**
+     * Caches the user, replaces the previous object with the same login
+     * @param login login of the user
+     * @param user loaded or changed user
+     */
+    public synchronized void put(String login, User user) {
+        if (capacity > 0) {
+            users.put(login, user);
+        }
+    }
+
+    /**
+     * Forgets the user
+     * @param login login of the user
+     */
+    public synchronized void remove(String login) {
+        users.remove(login);
+    }
+
+    /**
+     * Checks if it is time to compare the stamp of the storage
+     * @param now current time in milliseconds
+     * @return boolean: should validate be called?
+     */
+    synchronized boolean needsCheck(long now) {
+        if (now - checked < CHECK_INTERVAL) {
+            return false;
+        }
+        checked = now;
+        return true;
+    }
+
+    /**
+     * Empties the cache if the storage was changed by somebody else
+     * @param current current modification stamp of the storage
+     */
+    synchronized void validate(long current) {
+        if (current != stamp) {
+            if (!users.isEmpty()) {
+                invalidations++;
+                users.clear();
+            }
+            stamp = current;
+        }
+    }
+
+    /**
+     * Remembers the stamp after the gym wrote to the storage, cached users are still the newest
+     * @param current modification stamp of the storage after the write
+     */
+    synchronized void written(long current) {
+        stamp = current;
+    }
+
+    public synchronized int size() {
+        return users.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized long getInvalidations() {
+        return invalidations;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "accounts " + users.size() + "/" + capacity + ", hits " + hits + ", misses " + misses
+                + ", evictions " + evictions + ", invalidations " + invalidations;
+    }
+}
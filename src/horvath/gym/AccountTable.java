@@ -0,0 +1,429 @@
+package horvath.gym;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32C;
+
+/**
+ * Memory-mapped table of user accounts with fixed-size slots
+ * <p>
+ * Every slot holds identity, password hash, balance and position of the users reservations
+ * and records in the sections file. Login is a lookup in the name index and a read of the slot,
+ * balance is written directly into the slot. Sections are appended to the sections file only
+ * when they changed and every slot keeps their checksum. Appended sections are forced to the disk
+ * before the slot points to them, so after a crash the slot points either to the old or to the new
+ * sections and both are complete. When old sections take more space than
+ * live ones, they are copied to a new sections file and the table pointing to it replaces the old
+ * table by an atomic rename, so a crash leaves either the old or the new version. The table is
+ * mapped, so there is no compaction on systems where a mapped file can not be replaced
+ * (see {@link GymTools#MAPPED_FILES_REPLACEABLE}).
+ * Reads of accounts share a read lock, so many threads can load users at once.
+ *
+ * @author Marcel Horváth
+ */
+public class AccountTable implements Closeable {
+    public static final String TABLE_FILE = "accounts.tbl";
+    public static final String SECTIONS_FILE = "sections.dat";
+    public static final int SLOT_SIZE = 320;
+    private static final int MAGIC = 0x47594D41;
+    private static final short VERSION = 2;
+    private static final int HEADER_SIZE = SLOT_SIZE;
+    private static final int COUNT_OFFSET = 8;
+    private static final int GENERATION_OFFSET = 12;
+    private static final int INITIAL_SLOTS = 1024;
+    private static final long COMPACT_MIN = 1 << 20;
+    private static final int STATE = 0;
+    private static final int GENDER = 1;
+    private static final int ID = 2;
+    private static final int BALANCE = 18;
+    private static final int SECTIONS_POSITION = 26;
+    private static final int SECTIONS_LENGTH = 34;
+    private static final int NAME = 38;
+    private static final int LAST_NAME = 102;
+    private static final int PASSWORD = 166;
+    private static final int SECTIONS_CRC = 316;
+    private static final int NAME_BYTES = 63;
+    private static final int PASSWORD_BYTES = 149;
+    private final Path dir;
+    private FileChannel tableChannel;
+    private FileChannel sections;
+    private MappedByteBuffer table;
+    private int slotCount;
+    private int generation;
+    private long sectionsEnd;
+    private long live;
+    private final Map<String, Integer> index = new HashMap<>();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Opens table in the directory, creates it if it does not exist
+     * @param dir directory of the table
+     * @throws IOException
+     */
+    public AccountTable(Path dir) throws IOException {
+        this.dir = dir;
+        Files.deleteIfExists(dir.resolve(TABLE_FILE + GymTools.TEMP_SUFFIX));
+        open();
+    }
+
+    private void open() throws IOException {
+        tableChannel = FileChannel.open(dir.resolve(TABLE_FILE), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        boolean created = tableChannel.size() == 0;
+        table = tableChannel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(tableChannel.size(), HEADER_SIZE + (long) INITIAL_SLOTS * SLOT_SIZE));
+        if (created) {
+            table.putInt(0, MAGIC).putShort(4, VERSION).putInt(COUNT_OFFSET, 0).putInt(GENERATION_OFFSET, 0);
+        } else if (table.getInt(0) != MAGIC || table.getShort(4) > VERSION) {
+            throw new GymException("file could not be loaded", 104, "unknown account table " + dir);
+        }
+        slotCount = table.getInt(COUNT_OFFSET);
+        generation = table.getInt(GENERATION_OFFSET);
+        sections = FileChannel.open(dir.resolve(sectionsFile(generation)), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        sectionsEnd = sections.size();
+        index.clear();
+        live = 0;
+        for (int slot = 0; slot < slotCount; slot++) {
+            if (table.get(offset(slot) + STATE) != 0) {
+                index.put(GymStore.login(getText(slot, NAME) + getText(slot, LAST_NAME)), slot);
+                live += table.getInt(offset(slot) + SECTIONS_LENGTH);
+            }
+        }
+        if (table.getShort(4) < VERSION) {
+            for (int slot : index.values()) {
+                table.putInt(offset(slot) + SECTIONS_CRC, checksum(readSections(slot)));
+            }
+            table.putShort(4, VERSION);
+        }
+        if (generation > 0) {
+            Files.deleteIfExists(dir.resolve(sectionsFile(generation - 1)));
+        }
+    }
+
+    /**
+     * Checks if the user has a slot
+     * @param login login of the user
+     * @return boolean: is the user in the table?
+     */
+    public boolean contains(String login) {
+        lock.readLock().lock();
+        try {
+            return index.containsKey(login);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Reads user from the slot, their reservations and records are read from the sections file
+     * only when they are used
+     * @param login login of the user
+     * @return loaded user, null if the user is not in the table
+     */
+    public User read(String login) {
+        lock.readLock().lock();
+        try {
+            Integer slot = index.get(login);
+            if (slot == null) {
+                return null;
+            }
+            int offset = offset(slot);
+            UUID id = new UUID(table.getLong(offset + ID), table.getLong(offset + ID + 8));
+            GymTools.Gender gender = GymTools.Gender.values()[table.get(offset + GENDER)];
+            double balance = table.getDouble(offset + BALANCE);
+            return new User(id, getText(slot, NAME), getText(slot, LAST_NAME), gender,
+                    getText(slot, PASSWORD), balance, () -> readSections(login));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Reads current reservations and records of the user, the slot is looked up again,
+     * because the sections can be moved by compaction after the user was read
+     * @param login login of the user
+     * @return encoded sections
+     * @throws IOException
+     */
+    private ByteBuffer readSections(String login) throws IOException {
+        lock.readLock().lock();
+        try {
+            Integer slot = index.get(login);
+            if (slot == null) {
+                throw new GymException("file could not be loaded", 104, "missing account " + login);
+            }
+            ByteBuffer encoded = readSections(slot);
+            if (checksum(encoded) != table.getInt(offset(slot) + SECTIONS_CRC)) {
+                throw new GymException("file could not be loaded", 104, "damaged sections of " + login);
+            }
+            return encoded;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Writes the user into their slot, new user gets a new slot
+     * Reservations and records are appended to the sections file only if they changed,
+     * they are forced to the disk before the slot is updated
+     * @param user user to be saved
+     * @throws IOException
+     */
+    public void write(User user) throws IOException {
+        lock.writeLock().lock();
+        try {
+            check(user);
+            String login = GymStore.login(user);
+            Integer slot = index.get(login);
+            boolean created = slot == null;
+            if (created) {
+                slot = allocate();
+            }
+            int offset = offset(slot);
+            boolean appended = created || user.isSectionsChanged();
+            if (appended) {
+                ByteBuffer encoded = GymCodec.encodeSections(user);
+                int crc = checksum(encoded);
+                long position = sectionsEnd;
+                int length = encoded.remaining();
+                while (encoded.hasRemaining()) {
+                    sections.write(encoded, position + length - encoded.remaining());
+                }
+                // the mapped slot can reach the disk before the sections, so they are forced first
+                sections.force(false);
+                sectionsEnd += length;
+                live += length - (created ? 0 : table.getInt(offset + SECTIONS_LENGTH));
+                table.putLong(offset + SECTIONS_POSITION, position);
+                table.putInt(offset + SECTIONS_LENGTH, length);
+                table.putInt(offset + SECTIONS_CRC, crc);
+                user.setSectionsSaved();
+            }
+            table.put(offset + GENDER, (byte) user.getGender().ordinal());
+            table.putLong(offset + ID, user.getId().getMostSignificantBits());
+            table.putLong(offset + ID + 8, user.getId().getLeastSignificantBits());
+            table.putDouble(offset + BALANCE, user.getBalance());
+            putText(slot, NAME, user.getName());
+            putText(slot, LAST_NAME, user.getLastName());
+            putText(slot, PASSWORD, user.getPassword());
+            table.put(offset + STATE, (byte) 1);
+            if (created) {
+                index.put(login, slot);
+            }
+            if (appended && GymTools.MAPPED_FILES_REPLACEABLE && sectionsEnd - live > COMPACT_MIN && sectionsEnd - live > live) {
+                compact();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Checks if name, last name and password fit into a slot
+     * @param user user to be checked
+     * @throws GymException if some of them is too long
+     */
+    public static void check(User user) {
+        checkLength(user.getName(), NAME_BYTES);
+        checkLength(user.getLastName(), NAME_BYTES);
+        checkLength(user.getPassword(), PASSWORD_BYTES);
+    }
+
+    /**
+     * Writes only the balance into the users slot
+     * @param user user with changed balance
+     * @throws IOException
+     */
+    public void writeBalance(User user) throws IOException {
+        lock.writeLock().lock();
+        try {
+            Integer slot = index.get(GymStore.login(user));
+            if (slot == null) {
+                write(user);
+                return;
+            }
+            table.putDouble(offset(slot) + BALANCE, user.getBalance());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Gives logins of all users in the table
+     * @return list of logins
+     */
+    public List<String> logins() {
+        lock.readLock().lock();
+        try {
+            return new ArrayList<>(index.keySet());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Gives identity of all users in the table, read only from their slots
+     * @return members
+     */
+    public List<MemberIndex.Member> members() {
+        lock.readLock().lock();
+        try {
+            List<MemberIndex.Member> members = new ArrayList<>(index.size());
+            for (Map.Entry<String, Integer> entry : index.entrySet()) {
+                int offset = offset(entry.getValue());
+                UUID id = new UUID(table.getLong(offset + ID), table.getLong(offset + ID + 8));
+                members.add(new MemberIndex.Member(id, entry.getKey(), getText(entry.getValue(), NAME), getText(entry.getValue(), LAST_NAME)));
+            }
+            return members;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Gives the newest modification time of the table and the sections file
+     * @return time in milliseconds
+     * @throws IOException
+     */
+    public long lastModified() throws IOException {
+        lock.readLock().lock();
+        try {
+            return Math.max(Files.getLastModifiedTime(dir.resolve(TABLE_FILE)).toMillis(),
+                    Files.getLastModifiedTime(dir.resolve(sectionsFile(generation))).toMillis());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Forces the table and the sections file to the disk
+     * @throws IOException
+     */
+    public void sync() throws IOException {
+        lock.readLock().lock();
+        try {
+            sections.force(false);
+            table.force();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            table.force();
+            tableChannel.close();
+            sections.close();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Copies live sections to a new sections file and replaces the table with one pointing to it
+     */
+    private void compact() throws IOException {
+        int end = offset(slotCount);
+        ByteBuffer copy = ByteBuffer.allocate(end).put(table.slice(0, end)).flip();
+        long position = 0;
+        try (FileChannel out = FileChannel.open(dir.resolve(sectionsFile(generation + 1)),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (int slot : index.values()) {
+                int offset = offset(slot);
+                long from = copy.getLong(offset + SECTIONS_POSITION);
+                int length = copy.getInt(offset + SECTIONS_LENGTH);
+                for (long copied = 0; copied < length; ) {
+                    copied += sections.transferTo(from + copied, length - copied, out);
+                }
+                copy.putLong(offset + SECTIONS_POSITION, position);
+                position += length;
+            }
+            out.force(true);
+        }
+        copy.putInt(GENERATION_OFFSET, generation + 1);
+        Path temp = dir.resolve(TABLE_FILE + GymTools.TEMP_SUFFIX);
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (copy.hasRemaining()) {
+                out.write(copy);
+            }
+            out.force(true);
+        }
+        table.force();
+        tableChannel.close();
+        sections.close();
+        GymTools.replace(temp, dir.resolve(TABLE_FILE));
+        open();
+    }
+
+    private ByteBuffer readSections(int slot) throws IOException {
+        int offset = offset(slot);
+        ByteBuffer encoded = ByteBuffer.allocate(table.getInt(offset + SECTIONS_LENGTH));
+        long position = table.getLong(offset + SECTIONS_POSITION);
+        while (encoded.hasRemaining()) {
+            if (sections.read(encoded, position + encoded.position()) < 0) {
+                throw new GymException("file could not be loaded", 104, "damaged sections file " + dir);
+            }
+        }
+        return encoded.flip();
+    }
+
+    private static int checksum(ByteBuffer buffer) {
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.duplicate());
+        return (int) crc.getValue();
+    }
+
+    private static String sectionsFile(int generation) {
+        return generation == 0 ? SECTIONS_FILE : "sections." + generation + ".dat";
+    }
+
+    private int allocate() throws IOException {
+        long needed = HEADER_SIZE + (long) (slotCount + 1) * SLOT_SIZE;
+        if (needed > table.capacity()) {
+            long capacity = table.capacity();
+            while (capacity < needed) {
+                capacity = HEADER_SIZE + (capacity - HEADER_SIZE) * 2;
+            }
+            if (capacity > Integer.MAX_VALUE) {
+                throw new GymException("Files could not be saved", 105, "account table is full");
+            }
+            table.force();
+            table = tableChannel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        }
+        int slot = slotCount++;
+        table.putInt(COUNT_OFFSET, slotCount);
+        return slot;
+    }
+
+    private static int offset(int slot) {
+        return HEADER_SIZE + slot * SLOT_SIZE;
+    }
+
+    private String getText(int slot, int field) {
+        int position = offset(slot) + field;
+        byte[] bytes = new byte[table.get(position) & 0xFF];
+        table.get(position + 1, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void checkLength(String text, int maxBytes) {
+        if (text.getBytes(StandardCharsets.UTF_8).length > maxBytes) {
+            throw new GymException("Bad input", 103, "text is too long: " + text);
+        }
+    }
+
+    private void putText(int slot, int field, String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        int position = offset(slot) + field;
+        table.put(position, (byte) bytes.length);
+        table.put(position + 1, bytes);
+    }
+}
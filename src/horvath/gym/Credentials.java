@@ -0,0 +1,215 @@
+package horvath.gym;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.*;
+
+/**
+ * Hashing and checking of passwords, and cache of recently verified session tokens
+ * <p>
+ * Passwords are hashed by PBKDF2 with HMAC-SHA256, the number of iterations is the cost of one hash.
+ * The hash is saved as "pbkdf2-sha256$iterations$salt$hash", so hashes of different cost can be
+ * checked and older ones found. Hashes saved before are hex SHA-512 without salt, they are still
+ * accepted and should be replaced at the next login. Key factories and digests are kept per thread,
+ * so they are not created for every password.
+ * <p>
+ * A token is given for every verified password. Until it expires it can be used instead
+ * of the password, so logging in again skips the slow hash. Only the last used tokens are kept.
+ *
+ * @author Marcel Horváth
+ */
+public class Credentials {
+    /** Iterations of new hashes, about 40 ms on one core */
+    public static final int DEFAULT_ITERATIONS = 100_000;
+    public static final int MIN_ITERATIONS = 1_000;
+    public static final int DEFAULT_TOKEN_CACHE_SIZE = 1024;
+    /** How long a token can be used, 15 minutes */
+    public static final long TOKEN_LIFETIME = 15 * 60 * 1000L;
+    /** Hashing with default iterations and without tokens, used by users created outside of a gym */
+    public static final Credentials DEFAULT = new Credentials(DEFAULT_ITERATIONS, 0);
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final String PREFIX = "pbkdf2-sha256$";
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BITS = 256;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private static final ThreadLocal<SecretKeyFactory> KDF = ThreadLocal.withInitial(() -> {
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM);
+        } catch (GeneralSecurityException e) {
+            throw new GymException("Password could not be hashed", 106);
+        }
+    });
+    private static final ThreadLocal<MessageDigest> SHA_512 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-512");
+        } catch (GeneralSecurityException e) {
+            throw new GymException("Password could not be hashed", 106);
+        }
+    });
+    private final int iterations;
+    /** Token to the verified user, in order of use */
+    private final LinkedHashMap<String, Token> tokens;
+
+    private record Token(String login, long expires) {
+    }
+
+    /**
+     * @param iterations iterations of new hashes
+     * @param tokenCacheSize most tokens kept at once, 0 gives no tokens
+     */
+    public Credentials(int iterations, int tokenCacheSize) {
+        if (iterations < MIN_ITERATIONS || tokenCacheSize < 0) {
+            throw new GymException("Bad input", 103, "iterations have to be at least " + MIN_ITERATIONS + ", cache size not negative");
+        }
+        this.iterations = iterations;
+        this.tokens = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Token> eldest) {
+                return size() > tokenCacheSize;
+            }
+        };
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    /**
+     * Hashes the password with a new random salt
+     * @param password password
+     * @return saved form of the hash
+     */
+    public String hash(String password) {
+        byte[] salt = new byte[SALT_BYTES];
+        RANDOM.nextBytes(salt);
+        Base64.Encoder base64 = Base64.getEncoder().withoutPadding();
+        return PREFIX + iterations + '$' + base64.encodeToString(salt) + '$' + base64.encodeToString(pbkdf2(password, salt, iterations));
+    }
+
+    /**
+     * Checks the password against the saved hash of any cost, old SHA-512 hashes included
+     * @param password inputted password
+     * @param stored saved hash
+     * @return boolean: is the password correct?
+     */
+    public boolean verify(String password, String stored) {
+        if (!stored.startsWith(PREFIX)) {
+            return verifyLegacy(password, stored);
+        }
+        String[] parts = stored.substring(PREFIX.length()).split("\\$");
+        if (parts.length != 3) {
+            return false;
+        }
+        try {
+            Base64.Decoder base64 = Base64.getDecoder();
+            byte[] expected = base64.decode(parts[2]);
+            return MessageDigest.isEqual(expected, pbkdf2(password, base64.decode(parts[1]), Integer.parseInt(parts[0])));
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Checks if the hash is old SHA-512 or has different cost than new hashes
+     * @param stored saved hash
+     * @return boolean: should the password be hashed again?
+     */
+    public boolean needsRehash(String stored) {
+        if (!stored.startsWith(PREFIX)) {
+            return true;
+        }
+        int end = stored.indexOf('$', PREFIX.length());
+        return end < 0 || !stored.substring(PREFIX.length(), end).equals(String.valueOf(iterations));
+    }
+
+    private static byte[] pbkdf2(String password, byte[] salt, int iterations) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, HASH_BITS);
+        try {
+            return KDF.get().generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new GymException("Password could not be hashed", 106);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    /**
+     * Old hashes were made from bytes in the default charset, so it is tried when it is not UTF-8
+     */
+    private static boolean verifyLegacy(String password, String stored) {
+        byte[] expected = stored.getBytes(StandardCharsets.US_ASCII);
+        if (MessageDigest.isEqual(expected, legacyHash(password, StandardCharsets.UTF_8).getBytes(StandardCharsets.US_ASCII))) {
+            return true;
+        }
+        Charset platform = Charset.defaultCharset();
+        return !platform.equals(StandardCharsets.UTF_8)
+                && MessageDigest.isEqual(expected, legacyHash(password, platform).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Hashes the password the old way: SHA-512 as hex number without leading zeros, at least 32 digits
+     * @param password password
+     * @param charset charset of the password bytes
+     * @return hex hash
+     */
+    static String legacyHash(String password, Charset charset) {
+        byte[] digest = SHA_512.get().digest(password.getBytes(charset));
+        char[] hex = new char[digest.length * 2];
+        for (int i = 0; i < digest.length; i++) {
+            hex[2 * i] = HEX[(digest[i] >> 4) & 0xF];
+            hex[2 * i + 1] = HEX[digest[i] & 0xF];
+        }
+        int start = 0;
+        while (start < hex.length - 32 && hex[start] == '0') {
+            start++;
+        }
+        return new String(hex, start, hex.length - start);
+    }
+
+    /**
+     * Gives new token for the user whose password was just verified
+     * @param user verified user
+     * @return token, null if tokens are not kept
+     */
+    public String issueToken(User user) {
+        byte[] random = new byte[24];
+        RANDOM.nextBytes(random);
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString(random);
+        synchronized (tokens) {
+            tokens.put(token, new Token(GymStore.login(user), System.currentTimeMillis() + TOKEN_LIFETIME));
+            return tokens.containsKey(token) ? token : null;
+        }
+    }
+
+    /**
+     * Finds login of the user the token was given to
+     * @param token token from issueToken
+     * @return login, null if the token is not known or expired
+     */
+    public String checkToken(String token) {
+        synchronized (tokens) {
+            Token found = tokens.get(token);
+            if (found == null || found.expires() < System.currentTimeMillis()) {
+                tokens.remove(token);
+                return null;
+            }
+            return found.login();
+        }
+    }
+
+    /**
+     * Forgets the token
+     * @param token token from issueToken
+     */
+    public void revoke(String token) {
+        synchronized (tokens) {
+            tokens.remove(token);
+        }
+    }
+}
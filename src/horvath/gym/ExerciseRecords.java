@@ -0,0 +1,177 @@
+package horvath.gym;
+
+import java.util.*;
+
+/**
+ * Exercise records of one user kept sorted while they are added
+ * <p>
+ * Weights of every exercise are in a primitive array in ascending order, a new weight is put
+ * to its place by binary search. Exercises are indexed by their best and by their lowest lift,
+ * so both orders of showing the records are only iteration, nothing is sorted again.
+ *
+ * @author Marcel Horváth
+ */
+public class ExerciseRecords {
+    /** Exercises by best lift descending, weights descending */
+    public static final int REVERSE_ORDER = 1;
+    /** Exercises by lowest lift ascending, weights ascending */
+    public static final int NATURAL_ORDER = 2;
+    private final Map<String, Lifts> exercises = new HashMap<>();
+    private final TreeSet<Lifts> byBest = new TreeSet<>((a, b) -> a.getBest() != b.getBest()
+            ? Integer.compare(b.getBest(), a.getBest()) : a.name.compareTo(b.name));
+    private final TreeSet<Lifts> byLowest = new TreeSet<>((a, b) -> a.getLowest() != b.getLowest()
+            ? Integer.compare(a.getLowest(), b.getLowest()) : a.name.compareTo(b.name));
+
+    /**
+     * Lifts of one exercise in ascending order
+     */
+    public static class Lifts {
+        private final String name;
+        private int[] weights = new int[4];
+        private int size;
+
+        private Lifts(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Gives weight on the position
+         * @param index position in ascending order
+         * @return weight
+         */
+        public int get(int index) {
+            Objects.checkIndex(index, size);
+            return weights[index];
+        }
+
+        public int getBest() {
+            return weights[size - 1];
+        }
+
+        public int getLowest() {
+            return weights[0];
+        }
+
+        private void insert(int weight) {
+            int index = Arrays.binarySearch(weights, 0, size, weight);
+            if (index < 0) {
+                index = -index - 1;
+            }
+            if (size == weights.length) {
+                weights = Arrays.copyOf(weights, size * 2);
+            }
+            System.arraycopy(weights, index, weights, index + 1, size - index);
+            weights[index] = weight;
+            size++;
+        }
+    }
+
+    /**
+     * Adds weight of the exercise
+     * @param exercise name of the exercise
+     * @param weight lifted weight
+     */
+    public void add(String exercise, int weight) {
+        Lifts lifts = exercises.get(exercise);
+        if (lifts == null) {
+            lifts = new Lifts(exercise);
+            lifts.insert(weight);
+            exercises.put(exercise, lifts);
+            byBest.add(lifts);
+            byLowest.add(lifts);
+            return;
+        }
+        boolean best = weight > lifts.getBest();
+        boolean lowest = weight < lifts.getLowest();
+        if (best) {
+            byBest.remove(lifts);
+        }
+        if (lowest) {
+            byLowest.remove(lifts);
+        }
+        lifts.insert(weight);
+        if (best) {
+            byBest.add(lifts);
+        }
+        if (lowest) {
+            byLowest.add(lifts);
+        }
+    }
+
+    /**
+     * Gives lifts of the exercise
+     * @param exercise name of the exercise
+     * @return lifts, null if the exercise has no records
+     */
+    public Lifts get(String exercise) {
+        return exercises.get(exercise);
+    }
+
+    /**
+     * Gives exercises in the order
+     * @param order REVERSE_ORDER or NATURAL_ORDER
+     * @return exercises, weights have to be read from the end for REVERSE_ORDER
+     */
+    public Collection<Lifts> inOrder(int order) {
+        return Collections.unmodifiableSet(order == REVERSE_ORDER ? byBest : byLowest);
+    }
+
+    public int size() {
+        return exercises.size();
+    }
+
+    public boolean isEmpty() {
+        return exercises.isEmpty();
+    }
+
+    public void clear() {
+        exercises.clear();
+        byBest.clear();
+        byLowest.clear();
+    }
+
+    /**
+     * Copies records to a map
+     * @param order REVERSE_ORDER or NATURAL_ORDER
+     * @return exercises with their weights in the order
+     */
+    public LinkedHashMap<String, List<Integer>> toMap(int order) {
+        LinkedHashMap<String, List<Integer>> map = new LinkedHashMap<>();
+        for (Lifts lifts : inOrder(order)) {
+            List<Integer> weights = new ArrayList<>(lifts.size);
+            for (int i = 0; i < lifts.size; i++) {
+                weights.add(lifts.weights[order == REVERSE_ORDER ? lifts.size - 1 - i : i]);
+            }
+            map.put(lifts.name, weights);
+        }
+        return map;
+    }
+
+    /**
+     * Formats records as lines "exercise = weight, weight"
+     * @param order REVERSE_ORDER or NATURAL_ORDER
+     * @return formatted records
+     */
+    public String toString(int order) {
+        StringBuilder text = new StringBuilder();
+        for (Lifts lifts : inOrder(order)) {
+            text.append(lifts.name).append(" = ");
+            for (int i = 0; i < lifts.size; i++) {
+                if (i > 0) {
+                    text.append(", ");
+                }
+                text.append(lifts.weights[order == REVERSE_ORDER ? lifts.size - 1 - i : i]);
+            }
+            text.append(System.lineSeparator());
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,161 @@
+package horvath.gym;
+
+import java.time.LocalDate;
+import java.util.*;
+
+/**
+ * Running statistics of one exercise: personal record, estimated one repetition maximum,
+ * its moving average and trend, and volume per week
+ * <p>
+ * Every logged workout updates the statistics in constant time (weeks in logarithmic time),
+ * so reading them never goes over the history again. One repetition maximum is estimated
+ * by the Epley formula, weight * (1 + reps / 30).
+ *
+ * @author Marcel Horváth
+ */
+public class ExerciseStats {
+    /** Number of last workouts in the moving average */
+    public static final int MOVING_WINDOW = 10;
+    private static final long DAY_MILLIS = 24 * 60 * 60 * 1000L;
+    private final String exercise;
+    private int count;
+    private double totalVolume;
+    private float personalRecord;
+    private long personalRecordTime;
+    private float bestOneRepMax;
+    private final float[] window;
+    private int windowSize;
+    private int windowNext;
+    private double windowSum;
+    /** Monday of the week as epoch day to lifted volume */
+    private final TreeMap<Long, Double> weeklyVolume;
+    /** Monday of the week as epoch day to the best estimated one repetition maximum */
+    private final TreeMap<Long, Float> weeklyOneRepMax;
+
+    ExerciseStats(String exercise) {
+        this.exercise = exercise;
+        this.window = new float[MOVING_WINDOW];
+        this.weeklyVolume = new TreeMap<>();
+        this.weeklyOneRepMax = new TreeMap<>();
+    }
+
+    private ExerciseStats(ExerciseStats other) {
+        this.exercise = other.exercise;
+        this.count = other.count;
+        this.totalVolume = other.totalVolume;
+        this.personalRecord = other.personalRecord;
+        this.personalRecordTime = other.personalRecordTime;
+        this.bestOneRepMax = other.bestOneRepMax;
+        this.window = other.window.clone();
+        this.windowSize = other.windowSize;
+        this.windowNext = other.windowNext;
+        this.windowSum = other.windowSum;
+        this.weeklyVolume = new TreeMap<>(other.weeklyVolume);
+        this.weeklyOneRepMax = new TreeMap<>(other.weeklyOneRepMax);
+    }
+
+    /**
+     * Estimates one repetition maximum by the Epley formula
+     * @param weight lifted weight
+     * @param reps repetitions
+     * @return estimated maximum
+     */
+    public static float oneRepMax(float weight, int reps) {
+        return reps == 1 ? weight : weight * (1 + reps / 30f);
+    }
+
+    /**
+     * Adds one workout to the statistics
+     */
+    void add(long time, float weight, int reps, int sets) {
+        count++;
+        double volume = (double) weight * reps * sets;
+        totalVolume += volume;
+        if (weight > personalRecord) {
+            personalRecord = weight;
+            personalRecordTime = time;
+        }
+        float oneRepMax = oneRepMax(weight, reps);
+        bestOneRepMax = Math.max(bestOneRepMax, oneRepMax);
+        if (windowSize == window.length) {
+            windowSum -= window[windowNext];
+        } else {
+            windowSize++;
+        }
+        window[windowNext] = oneRepMax;
+        windowSum += oneRepMax;
+        windowNext = (windowNext + 1) % window.length;
+        long day = Math.floorDiv(time, DAY_MILLIS);
+        // epoch day 0 was Thursday, Monday of the week is 3 days before it
+        long week = day - Math.floorMod(day + 3, 7);
+        weeklyVolume.merge(week, volume, Double::sum);
+        weeklyOneRepMax.merge(week, oneRepMax, Math::max);
+    }
+
+    ExerciseStats copy() {
+        return new ExerciseStats(this);
+    }
+
+    public String getExercise() {
+        return exercise;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public double getTotalVolume() {
+        return totalVolume;
+    }
+
+    public float getPersonalRecord() {
+        return personalRecord;
+    }
+
+    public long getPersonalRecordTime() {
+        return personalRecordTime;
+    }
+
+    public float getBestOneRepMax() {
+        return bestOneRepMax;
+    }
+
+    /**
+     * Gives average estimated one repetition maximum of the last MOVING_WINDOW workouts
+     * @return moving average, 0 if nothing was logged
+     */
+    public double getMovingAverage() {
+        return windowSize == 0 ? 0 : windowSum / windowSize;
+    }
+
+    /**
+     * Gives lifted volume of every week with a workout
+     * @return Monday of the week to the volume, in ascending order
+     */
+    public LinkedHashMap<LocalDate, Double> getWeeklyVolume() {
+        return byMonday(weeklyVolume);
+    }
+
+    /**
+     * Gives the best estimated one repetition maximum of every week with a workout
+     * @return Monday of the week to the estimated maximum, in ascending order
+     */
+    public LinkedHashMap<LocalDate, Float> getOneRepMaxTrend() {
+        return byMonday(weeklyOneRepMax);
+    }
+
+    private static <V> LinkedHashMap<LocalDate, V> byMonday(TreeMap<Long, V> weeks) {
+        LinkedHashMap<LocalDate, V> result = new LinkedHashMap<>();
+        for (Map.Entry<Long, V> week : weeks.entrySet()) {
+            result.put(LocalDate.ofEpochDay(week.getKey()), week.getValue());
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return exercise + ": PR " + personalRecord + " (" + LocalDate.ofEpochDay(Math.floorDiv(personalRecordTime, DAY_MILLIS))
+                + "), 1RM " + bestOneRepMax + ", average 1RM " + String.format(Locale.ROOT, "%.1f", getMovingAverage())
+                + ", weeks " + weeklyVolume.size() + ", volume " + String.format(Locale.ROOT, "%.0f", totalVolume);
+    }
+}
@@ -0,0 +1,215 @@
+package horvath.gym;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.util.*;
+
+/**
+ * Storage with table of user accounts, reservation snapshot with journal and text files with records
+ * <p>
+ * Layout of the gym directory: users/accounts.tbl, users/sections.dat, reservation.dat, reservation.journal,
+ * records/name_record.txt, workouts/id.log. Users from older versions saved in users/login.acc are moved to the table
+ * when they are loaded, their files are deleted once the table is on the disk.
+ *
+ * @author Marcel Horváth
+ */
+public class FileGymStore implements GymStore {
+    private final Path gymRoot;
+    private final AccountTable accounts;
+    private ReservationJournal journal;
+
+    public FileGymStore(Path gymRoot) throws IOException {
+        this.gymRoot = gymRoot;
+        File userDir = gymRoot.resolve(Gym.USERS_DIR).toFile();
+        if (!userDir.exists()) {
+            userDir.mkdirs();
+        }
+        accounts = new AccountTable(userDir.toPath());
+    }
+
+    @Override
+    public User loadUser(String login) throws IOException {
+        User user = accounts.read(login);
+        if (user != null) {
+            return user;
+        }
+        Path path = userPath(login);
+        try {
+            user = GymCodec.readUser(path);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        }
+        accounts.write(user);
+        accounts.sync();
+        Files.deleteIfExists(path);
+        Files.deleteIfExists(path.resolveSibling(path.getFileName() + GymTools.BACKUP_SUFFIX));
+        return user;
+    }
+
+    @Override
+    public void saveUser(User user) throws IOException {
+        accounts.write(user);
+    }
+
+    @Override
+    public void checkUser(User user) {
+        AccountTable.check(user);
+    }
+
+    @Override
+    public void saveBalance(User user) throws IOException {
+        accounts.writeBalance(user);
+    }
+
+    @Override
+    public List<String> listUsers() throws IOException {
+        List<String> logins = accounts.logins();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(gymRoot.resolve(Gym.USERS_DIR), "*" + Gym.ACCOUNT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                String login = name.substring(0, name.length() - Gym.ACCOUNT_SUFFIX.length());
+                if (!accounts.contains(login)) {
+                    logins.add(login);
+                }
+            }
+        }
+        return logins;
+    }
+
+    /**
+     * Members in the account table are read from their slots, only old user files are loaded in parallel
+     */
+    @Override
+    public List<MemberIndex.Member> listMembers() throws IOException {
+        List<MemberIndex.Member> members = new ArrayList<>(accounts.members());
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(gymRoot.resolve(Gym.USERS_DIR), "*" + Gym.ACCOUNT_SUFFIX)) {
+            for (Path file : stream) {
+                String name = file.getFileName().toString();
+                if (!accounts.contains(name.substring(0, name.length() - Gym.ACCOUNT_SUFFIX.length()))) {
+                    files.add(file);
+                }
+            }
+        }
+        try {
+            files.parallelStream()
+                    .map(file -> {
+                        try {
+                            return MemberIndex.Member.of(GymCodec.readUser(file));
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        } catch (ClassNotFoundException e) {
+                            throw new UncheckedIOException(new IOException(e));
+                        }
+                    })
+                    .forEachOrdered(members::add);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return members;
+    }
+
+    @Override
+    public HashMap<LocalDate, List<UUID>> loadReservations() throws IOException {
+        HashMap<LocalDate, List<UUID>> saved;
+        Path snapshot = gymRoot.resolve(Gym.RESERVATION_FILE);
+        try {
+            saved = GymTools.exists(snapshot)
+                    ? GymCodec.loadReservations(snapshot, ReservationJournal.backupOf(gymRoot.resolve(ReservationJournal.JOURNAL_FILE)))
+                    : new HashMap<>();
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        }
+        if (journal == null) {
+            journal = new ReservationJournal(gymRoot.resolve(ReservationJournal.JOURNAL_FILE));
+        }
+        journal.replay(saved);
+        return saved;
+    }
+
+    /**
+     * Opens the snapshot without decoding its days, old or damaged snapshot is loaded the usual way with migration and backup
+     */
+    @Override
+    public void loadReservations(ReservationBook book) throws IOException {
+        Path snapshot = gymRoot.resolve(Gym.RESERVATION_FILE);
+        ReservationSnapshot opened = null;
+        if (Files.isRegularFile(snapshot)) {
+            try {
+                opened = ReservationSnapshot.open(snapshot);
+            } catch (IOException | RuntimeException e) {
+                opened = null;
+            }
+        }
+        if (opened == null) {
+            book.load(loadReservations());
+            return;
+        }
+        book.load(opened);
+        if (journal == null) {
+            journal = new ReservationJournal(gymRoot.resolve(ReservationJournal.JOURNAL_FILE));
+        }
+        journal.replay(book);
+    }
+
+    @Override
+    public void appendReservation(byte op, LocalDate datum, UUID id) throws IOException {
+        journal.append(op, datum, id);
+    }
+
+    @Override
+    public boolean needsCompaction() {
+        return journal.needsCompaction();
+    }
+
+    @Override
+    public void saveReservations(Map<LocalDate, List<UUID>> reservations) throws IOException {
+        GymCodec.saveReservations(reservations, gymRoot.resolve(Gym.RESERVATION_FILE));
+        journal.reset();
+    }
+
+    @Override
+    public WritableByteChannel openRecords(User user) throws IOException {
+        Path recordsDir = gymRoot.resolve(User.RECORDS_DIR);
+        Files.createDirectories(recordsDir);
+        return FileChannel.open(recordsDir.resolve(user.getName() + User.RECORD_SUFFIX),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    @Override
+    public WorkoutLog openWorkoutLog(User user) {
+        return new WorkoutLog(gymRoot.resolve(WorkoutLog.WORKOUTS_DIR).resolve(user.getId() + WorkoutLog.LOG_SUFFIX));
+    }
+
+    @Override
+    public long lastModified() throws IOException {
+        return accounts.lastModified();
+    }
+
+    @Override
+    public void sync() throws IOException {
+        accounts.sync();
+        if (journal != null) {
+            journal.sync();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        accounts.close();
+        if (journal != null) {
+            journal.close();
+        }
+    }
+
+    private Path userPath(String login) {
+        return gymRoot.resolve(Gym.USERS_DIR).resolve(login + Gym.ACCOUNT_SUFFIX);
+    }
+}
@@ -1,18 +1,27 @@
 package horvath.gym;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.Path;
 import java.time.LocalDate;
+import java.time.YearMonth;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * Main class to list/add/remove reservations, log/register users
+ * <p>
+ * One instance is shared by all logged users, every login gets its own {@link GymSession}
  *
  * @author Marcel Horváth
  */
-public class Gym implements Serializable {
+public class Gym implements Serializable, Closeable {
+    private static final long serialVersionUID = -5832557636376871549L;
     public static final String GYM_SUFFIX = ".gym";
     public static final String RESERVATION_FILE = "reservation.dat";
     public static final String ACCOUNT_SUFFIX = ".acc";
@@ -20,53 +29,188 @@ public class Gym implements Serializable {
     private final String gymName;
     private final int maxPeople;
     private final File gymRoot;
-    private Balance currentFee;
-    private HashMap<LocalDate, List<UUID>> reservations;
+    private GymStore.Kind storeKind;
+    private transient GymStore store;
+    private transient ReservationBook reservations;
+    private transient ReentrantReadWriteLock persistLock;
+    private transient PersistenceScheduler persistence;
+    private transient Map<UUID, WorkoutLog> workoutLogs;
+    /** Users with open session, waiting users are charged on these objects when they are logged in */
+    private transient Map<String, User> online;
+    private transient Credentials credentials;
+    private transient AccountCache accounts;
+    private transient MemberIndex members;
     private final Balance feeCz;
     private final Balance feeUs;
-    private User user = null;
 
     /**
-     * Creates instance of gym
+     * Creates instance of gym with one file per user
      * Loads already saved reservations, if there are any
      */
     public Gym(String gymName, int maxPeople, Path gymRoot, float feeCz, float feeUs) {
+        this(gymName, maxPeople, gymRoot, feeCz, feeUs, GymStore.Kind.FILE);
+    }
+
+    /**
+     * Creates instance of gym
+     * Loads already saved reservations, if there are any, gym file is written only when its configuration changed
+     * @param storeKind kind of the storage of users, reservations and records
+     */
+    public Gym(String gymName, int maxPeople, Path gymRoot, float feeCz, float feeUs, GymStore.Kind storeKind) {
         this.gymName = gymName;
         this.feeCz = new Balance(Currency.getInstance("CZK"), feeCz);
         this.feeUs = new Balance(Currency.getInstance("USD"), feeUs);
         this.maxPeople = maxPeople;
         this.gymRoot = gymRoot.toFile();
+        this.storeKind = storeKind;
         try {
-            File userDir = new File(this.gymRoot + "/" + USERS_DIR);
-            if (!userDir.exists()) {
-                userDir.mkdirs();
-            }
-            File reservationFile = new File(this.gymRoot + "/" + RESERVATION_FILE);
-            if (reservationFile.exists() && !reservationFile.isDirectory()) {
-                reservations = (HashMap<LocalDate, List<UUID>>) GymTools.objectLoader(Path.of(String.valueOf(gymRoot), RESERVATION_FILE));
-            } else {
-                reservations = new HashMap<>();
+            if (!this.gymRoot.exists()) {
+                this.gymRoot.mkdirs();
             }
-            GymTools.writeObjectToDisk(this,Path.of(String.valueOf(gymRoot), this.gymName +GYM_SUFFIX));
+            openStore();
+            GymCodec.saveGymIfChanged(this, Path.of(String.valueOf(gymRoot), this.gymName + GYM_SUFFIX));
         } catch (IOException e) {
             e.printStackTrace();
             throw new GymException("file could not be loaded", 104);
-        } catch (ClassNotFoundException e) {
-            e.printStackTrace();
-            throw new GymException("file was not found",107);
         }
     }
 
-    public String getGymName() {
-        return gymName;
+    /**
+     * Creates instance of gym over already opened storage, gym file is not saved
+     * @param store storage of users, reservations and records
+     */
+    public Gym(String gymName, int maxPeople, float feeCz, float feeUs, GymStore store) {
+        this.gymName = gymName;
+        this.feeCz = new Balance(Currency.getInstance("CZK"), feeCz);
+        this.feeUs = new Balance(Currency.getInstance("USD"), feeUs);
+        this.maxPeople = maxPeople;
+        this.gymRoot = null;
+        this.store = store;
+        try {
+            loadReservations();
+        } catch (IOException e) {
+            throw new GymException("file could not be loaded", 104);
+        }
     }
 
-    public User getUser() {
-        return user;
+    /**
+     * Creates instance of already saved gym, used when the gym file is decoded
+     */
+    Gym(String gymName, int maxPeople, File gymRoot, Balance feeCz, Balance feeUs, GymStore.Kind storeKind) throws IOException {
+        this.gymName = gymName;
+        this.maxPeople = maxPeople;
+        this.gymRoot = gymRoot;
+        this.feeCz = feeCz;
+        this.feeUs = feeUs;
+        this.storeKind = storeKind;
+        openStore();
     }
 
-    public Balance getCurrentFee() {
-        return currentFee;
+    /**
+     * Reservations are not part of the gym file, they are loaded from the storage
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        openStore();
+    }
+
+    private void openStore() throws IOException {
+        store = GymStore.open(getStoreKind(), gymRoot.toPath());
+        loadReservations();
+    }
+
+    /**
+     * Loads last snapshot of reservations with changes made after it
+     * Days of the snapshot are decoded when they are used for the first time
+     * @throws IOException
+     */
+    private void loadReservations() throws IOException {
+        reservations = new ReservationBook(maxPeople);
+        store.loadReservations(reservations);
+        persistLock = new ReentrantReadWriteLock();
+        persistence = new PersistenceScheduler(this, PersistenceScheduler.DEFAULT_INTERVAL, PersistenceScheduler.DEFAULT_BATCH_SIZE);
+        workoutLogs = new ConcurrentHashMap<>();
+        online = new ConcurrentHashMap<>();
+        credentials = new Credentials(Credentials.DEFAULT_ITERATIONS, Credentials.DEFAULT_TOKEN_CACHE_SIZE);
+        accounts = new AccountCache(AccountCache.DEFAULT_CAPACITY);
+        written(true);
+        members = MemberIndex.build(store);
+    }
+
+    /**
+     * Changes how often the changes are written, changes queued so far are saved first
+     * @param interval longest time in milliseconds between a change and its flush
+     * @param batchSize number of queued changes which starts the flush right away
+     */
+    public void configurePersistence(long interval, int batchSize) {
+        PersistenceScheduler previous = persistence;
+        persistence = new PersistenceScheduler(this, interval, batchSize);
+        previous.close();
+    }
+
+    /**
+     * Changes cost of new password hashes and size of the token cache, tokens given so far are forgotten
+     * Passwords hashed with different cost are hashed again when their user logs in
+     * @param iterations PBKDF2 iterations of one hash
+     * @param tokenCacheSize most session tokens kept at once
+     */
+    public void configureCredentials(int iterations, int tokenCacheSize) {
+        credentials = new Credentials(iterations, tokenCacheSize);
+    }
+
+    public Credentials getCredentials() {
+        return credentials;
+    }
+
+    /**
+     * Changes number of users kept in memory, cached users are forgotten
+     * @param capacity most cached users, 0 turns the cache off
+     */
+    public void configureAccountCache(int capacity) {
+        accounts = new AccountCache(capacity);
+        written(true);
+    }
+
+    public AccountCache getAccountCache() {
+        return accounts;
+    }
+
+    public PersistenceScheduler getPersistence() {
+        return persistence;
+    }
+
+    /**
+     * Saves all queued changes of users, reservations and workouts right away
+     */
+    public void flush() {
+        persistence.flush();
+        try {
+            for (WorkoutLog log : workoutLogs.values()) {
+                log.flush();
+            }
+        } catch (IOException e) {
+            throw new GymException("Files could not be saved", 105);
+        }
+    }
+
+    /**
+     * Saves queued changes and closes the storage
+     */
+    @Override
+    public void close() {
+        try {
+            persistence.close();
+            for (WorkoutLog log : workoutLogs.values()) {
+                log.close();
+            }
+            store.close();
+        } catch (IOException e) {
+            throw new GymException("Files could not be saved", 105);
+        }
+    }
+
+    public String getGymName() {
+        return gymName;
     }
 
     public float getFeeCZ() {
@@ -77,170 +221,516 @@ public class Gym implements Serializable {
         return feeUs.amount();
     }
 
+    Balance getFeeCzBalance() {
+        return feeCz;
+    }
+
+    Balance getFeeUsBalance() {
+        return feeUs;
+    }
+
     public int getMaxPeople() {
         return maxPeople;
     }
 
+    /**
+     * Copies all reservations
+     * @return copy of reservations, ids of users for every reserved day
+     */
     public HashMap<LocalDate, List<UUID>> getReservations() {
-        return reservations;
+        return reservations.snapshot();
+    }
+
+    /**
+     * Gives number of users reserved for a date
+     * @param datum reservation date
+     * @return number of reserved users
+     */
+    public int getOccupancy(LocalDate datum) {
+        return reservations.getOccupancy(datum);
+    }
+
+    /**
+     * Finds the nearest days with a free place
+     * @param from first checked day
+     * @param count number of wanted days
+     * @return free days in ascending order
+     */
+    public List<LocalDate> getFreeDays(LocalDate from, int count) {
+        return reservations.getFreeDays(from, count);
+    }
+
+    /**
+     * Gives free places of every day of the month
+     * @param month month of the calendar
+     * @return free places, index 0 is the first day of the month
+     */
+    public int[] getMonthAvailability(YearMonth month) {
+        return reservations.getFreePlaces(month.atDay(1), month.lengthOfMonth());
+    }
+
+    /**
+     * Gives all reserved days of the user
+     * @param id users id
+     * @return reserved days in ascending order
+     */
+    public List<LocalDate> getReservationsOf(UUID id) {
+        return reservations.getReservationsOf(id);
+    }
+
+    /**
+     * Gives members who reserved the date
+     * @param datum reservation date
+     * @return members in the order of their places, users missing in the index are left out
+     */
+    public List<MemberIndex.Member> getMembersOn(LocalDate datum) {
+        List<MemberIndex.Member> found = new ArrayList<>();
+        for (UUID id : reservations.getMembersOn(datum)) {
+            MemberIndex.Member member = members.get(id);
+            if (member != null) {
+                found.add(member);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Finds member by id
+     * @param id users id
+     * @return member, null if there is no such member
+     */
+    public MemberIndex.Member getMember(UUID id) {
+        return members.get(id);
     }
 
+    /**
+     * Finds members for the front desk by start of their name
+     * @param prefix start of name and last name, spaces and case do not matter
+     * @param limit most members returned
+     * @return members in alphabetical order of their logins
+     */
+    public List<MemberIndex.Member> searchMembers(String prefix, int limit) {
+        return members.search(prefix, limit);
+    }
+
+    public MemberIndex getMemberIndex() {
+        return members;
+    }
+
+    /**
+     * Gives directory of the gym
+     * @return directory, null if the gym was created over already opened storage
+     */
     public File getGymRoot() {
         return gymRoot;
     }
 
+    public GymStore.Kind getStoreKind() {
+        return storeKind == null ? GymStore.Kind.FILE : storeKind;
+    }
+
+    public GymStore getStore() {
+        return store;
+    }
+
     /**
-     * Registers user and saves him to database
+     * Registers user, queues him to be saved and logs him in
      * @param name     users name
      * @param lastName users last name
      * @param gender   users gender
      * @param password users password
+     * @return session of the new user
+     */
+    public GymSession registerUser(String name, String lastName, GymTools.Gender gender, String password) {
+        return register(new User(name, lastName, gender, password, credentials));
+    }
+
+    GymSession register(User user) {
+        store.checkUser(user);
+        persistence.userChanged(user);
+        accounts.put(GymStore.login(user), user);
+        members.add(MemberIndex.Member.of(user));
+        online.put(GymStore.login(user), user);
+        return new GymSession(this, user, credentials.issueToken(user));
+    }
+
+    /**
+     * Loads in the user by their id, found in the member index
+     *
+     * @param id users id
+     * @return loaded user, null if user was not found
      */
-    public void registerUser(String name, String lastName, GymTools.Gender gender, String password) {
-        this.user = new User(name, lastName, gender, password);
+    public User loadUser(UUID id) {
+        MemberIndex.Member member = members.get(id);
+        return member == null ? null : loadUser(member.login());
+    }
+
+    /**
+     * Loads in the user from the account cache or from the storage
+     *
+     * @param name whole name of the user
+     * @return loaded user, null if user was not found
+     */
+    public User loadUser(String name) {
+        String login = GymStore.login(name);
+        AccountCache accounts = this.accounts;
+        checkStore(accounts);
+        User user = accounts.get(login);
+        if (user != null) {
+            return user;
+        }
+        if (persistence.isPending(login)) {
+            persistence.flush();
+        }
         try {
-            GymTools.writeObjectToDisk(user,Path.of(String.valueOf(gymRoot),USERS_DIR,user.getName().toLowerCase(Locale.ROOT)+user.getLastName().toLowerCase(Locale.ROOT)+ACCOUNT_SUFFIX));
+            user = store.loadUser(login);
         } catch (IOException e) {
-            e.printStackTrace();
-            throw new GymException("User not found", 102);
+            return null;
+        }
+        if (user != null) {
+            accounts.put(login, user);
         }
+        return user;
     }
 
     /**
-     * Loads in the users file
-     *
-     * @param name users/file name
-     * @return boolean: was users file found?
+     * Empties the account cache if the storage was changed by somebody else, checked at most once a CHECK_INTERVAL
      */
-    public boolean loadUser(String name) {
-        try {
-            user = (User) GymTools.objectLoader(Path.of(String.valueOf(gymRoot), USERS_DIR, name.replaceAll("\\s+", "") + ACCOUNT_SUFFIX));
-            return true;
-        } catch (IOException | ClassNotFoundException e) {
-            return false;
+    private void checkStore(AccountCache accounts) {
+        if (accounts.needsCheck(System.currentTimeMillis())) {
+            try {
+                accounts.validate(store.lastModified());
+            } catch (IOException e) {
+                accounts.validate(-1);
+            }
         }
     }
 
     /**
-     * Hashes string input and then compares it to the users password
+     * Called by the persistence after a batch was written, so own writes do not empty the account cache
+     * @param users were users written in the batch?
+     */
+    void written(boolean users) {
+        if (users) {
+            try {
+                accounts.written(store.lastModified());
+            } catch (IOException e) {
+                accounts.validate(-1);
+            }
+        }
+    }
+
+    /**
+     * Hashes string input, compares it to the users password and logs the user in
+     * If the user is already logged in, the new session shares their object.
+     * Old SHA-512 hashes and hashes of different cost are replaced by a new hash and saved.
      *
+     * @param user     loaded user
      * @param password inputted string
-     * @return boolean: is the password correct?
+     * @return session of the user with a new token, null if the password is not correct
+     */
+    public GymSession checkPassword(User user, String password) {
+        Credentials credentials = this.credentials;
+        if (!credentials.verify(password, user.getPassword())) {
+            return null;
+        }
+        User online = this.online.putIfAbsent(GymStore.login(user), user);
+        User live = online != null && online.getId().equals(user.getId()) ? online : user;
+        if (credentials.needsRehash(live.getPassword())) {
+            String hash = credentials.hash(password);
+            synchronized (live) {
+                live.setPassword(hash);
+            }
+            saveUser(live);
+        }
+        return new GymSession(this, live, credentials.issueToken(live));
+    }
+
+    /**
+     * Logs the user in again by the token of a recent session, without hashing the password
+     *
+     * @param token token from GymSession.getToken
+     * @return session of the user, null if the token is not known or expired
      */
-    public boolean checkPassword(String password) {
-        if (!GymTools.encryptThisString(password).equals(user.getPassword())) {
-            user = null;
-            return false;
+    public GymSession resume(String token) {
+        String login = token == null ? null : credentials.checkToken(token);
+        if (login == null) {
+            return null;
         }
-        return true;
+        User user = online.get(login);
+        if (user == null) {
+            user = loadUser(login);
+            if (user == null) {
+                credentials.revoke(token);
+                return null;
+            }
+            User online = this.online.putIfAbsent(login, user);
+            user = online != null ? online : user;
+        }
+        return new GymSession(this, user, token);
     }
 
     /**
-     * Logs off the user, saves data
+     * Forgets the logged off user, writes and closes their workout log, so its history does not stay in memory
+     * @param user user of the closed session
      */
-    public void logOff() {
-        try {
-            GymTools.writeObjectToDisk(user,Path.of(String.valueOf(gymRoot),USERS_DIR,user.getName().toLowerCase(Locale.ROOT)+user.getLastName().toLowerCase(Locale.ROOT)+ACCOUNT_SUFFIX));
-            GymTools.writeObjectToDisk(reservations, Path.of(String.valueOf(gymRoot),RESERVATION_FILE));
+    void loggedOff(User user) {
+        online.remove(GymStore.login(user), user);
+        WorkoutLog log = workoutLogs.remove(user.getId());
+        if (log != null) {
+            try {
+                log.close();
+            } catch (IOException e) {
+                throw new GymException("Files could not be saved", 105);
+            }
+        }
+    }
 
+    /**
+     * Queues the user to be saved
+     * @param user user to be saved
+     */
+    public void saveUser(User user) {
+        accounts.put(GymStore.login(user), user);
+        persistence.userChanged(user);
+    }
+
+    /**
+     * Queues only the balance of the user to be saved
+     * @param user user with changed balance
+     */
+    public void saveBalance(User user) {
+        accounts.put(GymStore.login(user), user);
+        persistence.balanceChanged(user);
+    }
+
+    /**
+     * Gives workout log of the user, it is opened once and kept until the user logs off
+     * @param user owner of the log
+     * @return workout log
+     */
+    public WorkoutLog getWorkoutLog(User user) {
+        return workoutLogs.computeIfAbsent(user.getId(), id -> {
+            try {
+                return store.openWorkoutLog(user);
+            } catch (IOException e) {
+                throw new GymException("file could not be loaded", 104);
+            }
+        });
+    }
+
+    /**
+     * Exports records of the user to the storage
+     * @param user owner of the records
+     */
+    public void printRecords(User user) {
+        try (WritableByteChannel out = store.openRecords(user)) {
+            user.printRecords(out);
         } catch (IOException e) {
             throw new GymException("Files could not be saved", 105);
         }
-        user = null;
     }
 
-    public void saveUser() {
+    /**
+     * Exports records of all members to one output in one pass over the storage,
+     * queued changes of users are saved first
+     * @param out output for the records, it is not closed
+     * @param format format of the output
+     * @return number of exported members
+     */
+    public int exportAllRecords(WritableByteChannel out, RecordExporter.Format format) {
+        persistence.flush();
         try {
-            GymTools.writeObjectToDisk(user,Path.of(String.valueOf(gymRoot),USERS_DIR,user.getName().toLowerCase(Locale.ROOT)+user.getLastName().toLowerCase(Locale.ROOT)+ACCOUNT_SUFFIX));
+            RecordExporter exporter = new RecordExporter(out, format);
+            int exported = 0;
+            for (String login : store.listUsers()) {
+                User user = store.loadUser(login);
+                if (user != null && !user.getExerciseRecords().isEmpty()) {
+                    exporter.write(user);
+                    exported++;
+                }
+            }
+            exporter.flush();
+            return exported;
         } catch (IOException e) {
-            throw new GymException("User file could not be saved", 105);
+            throw new GymException("Files could not be saved", 105);
         }
     }
 
+    /**
+     * Writes snapshot of all reservations, changes saved before it are forgotten
+     */
     public void saveReservation() {
+        persistLock.writeLock().lock();
         try {
-            GymTools.writeObjectToDisk(reservations, Path.of(String.valueOf(gymRoot),RESERVATION_FILE));
-
+            store.saveReservations(reservations.snapshot());
+            persistence.reservationsSaved();
         } catch (IOException e) {
             throw new GymException("Reservation file could not be saved", 105);
+        } finally {
+            persistLock.writeLock().unlock();
         }
     }
 
     /**
-     * Sets a reservation for an inputted date,
-     * checks if user has money and if there are not a lot of people reserved for one date
-     *
-     * @param country string of country to decide, which fee should be used
-     * @param day     day in a date
-     * @param month   month in a date
-     * @param year    year in a date
-     * @return result of reservation: 0 - reservation was set, 1 - Not enough fund, 2 - Already reserved, 3 - Too many people reserved
+     * Books the date, charges the fee and queues the change for the journal together with the user,
+     * snapshot can not be written between those steps
+     * @param user user who books, the caller holds its lock
+     * @param datum reservation date
+     * @param fee fee of the reservation
+     * @return ReservationBook.RESERVED, ALREADY_RESERVED or FULL
      */
-    public int setReservation(String country, int day, int month, int year) {
-        setCurrentFee(country);
-        if (user.getBalance() < currentFee.amount()) {
-            return 1;
-        }
-        LocalDate datum = LocalDate.of(year, month, day);
-        if (!reservations.containsKey(datum)) {
-            reservations.put(datum, new ArrayList<>());
+    int bookAndJournal(User user, LocalDate datum, float fee) {
+        persistLock.readLock().lock();
+        try {
+            int result = reservations.book(datum, user.getId());
+            if (result == ReservationBook.RESERVED) {
+                user.setReservations(datum, fee);
+                persistence.reservationsBooked(List.of(datum), user);
+            }
+            return result;
+        } finally {
+            persistLock.readLock().unlock();
         }
+    }
 
-        if (user.getUserReservations().contains(datum)) {
-            return 2;
+    /**
+     * Books all dates for the user or none of them, charges the fee for every date and queues
+     * the bookings together with the user as one batch, so they are written by one sync
+     * @param user user who books, the caller holds its lock
+     * @param days reservation dates
+     * @param fee fee of one reservation
+     * @return ReservationBook.RESERVED or the reason and the day why nothing was booked
+     */
+    ReservationBook.BatchResult bookAllAndJournal(User user, List<LocalDate> days, float fee) {
+        persistLock.readLock().lock();
+        try {
+            ReservationBook.BatchResult result = reservations.bookAll(days, user.getId());
+            if (result.result() == ReservationBook.RESERVED) {
+                for (LocalDate datum : days) {
+                    user.setReservations(datum, fee);
+                }
+                persistence.reservationsBooked(days, user);
+            }
+            return result;
+        } finally {
+            persistLock.readLock().unlock();
         }
+    }
 
-        if (reservations.get(datum).size() >= maxPeople) {
-            return 3;
+    /**
+     * Books the date or puts the user on its waitlist, the booking is charged and queued
+     * for the journal together with the user
+     * @param user user who books, the caller holds its lock
+     * @param datum reservation date
+     * @param fee fee of the reservation, paid later when the user waits
+     * @return ReservationBook.RESERVED, ALREADY_RESERVED, WAITLISTED or ALREADY_WAITING
+     */
+    int bookOrWaitAndJournal(User user, LocalDate datum, float fee) {
+        persistLock.readLock().lock();
+        try {
+            int result = reservations.bookOrWait(datum, new ReservationBook.Waiting(user.getId(), GymStore.login(user), fee));
+            if (result == ReservationBook.RESERVED) {
+                user.setReservations(datum, fee);
+                persistence.reservationsBooked(List.of(datum), user);
+            }
+            return result;
+        } finally {
+            persistLock.readLock().unlock();
         }
-        reservations.get(datum).add(user.getId());
-        user.setReservations(datum, currentFee.amount());
-        saveReservation();
-        return 0;
     }
 
+    /**
+     * Removes the user from the waitlist of the day
+     * @param datum reservation date
+     * @param id users id
+     * @return boolean: was the user waiting?
+     */
+    public boolean leaveWaitlist(LocalDate datum, UUID id) {
+        return reservations.leaveWaitlist(datum, id);
+    }
+
+    /**
+     * Gives number of users waiting for the day
+     * @param datum reservation date
+     * @return length of the waitlist
+     */
+    public int getWaiting(LocalDate datum) {
+        return reservations.getWaiting(datum);
+    }
 
     /**
-     * Sets current fee
-     * @param country string of country to decide, which fee should be used
+     * Gives freed places of the day to waiting users in their order
+     * <p>
+     * The first waiting user is locked first, then they leave the waitlist, get the place and are
+     * charged in one step under their lock, so they can not cancel the day in between.
+     * Users who can not pay any more are removed from the waitlist and the next one is tried.
+     * Has to be called without holding lock of any user.
+     * @param datum day with a freed place
      */
-    public void setCurrentFee(String country) {
-        boolean man = user.getGender() == GymTools.Gender.M;
-        if (country.equals("CZ")) {
-            setFee(man, feeCz);
-        } else if (country.equals("US")) {
-            setFee(man, feeUs);
+    void promoteWaiting(LocalDate datum) {
+        ReservationBook.Waiting waiting;
+        while ((waiting = reservations.nextToPromote(datum)) != null) {
+            User user = online.get(waiting.login());
+            if (user == null) {
+                user = loadUser(waiting.login());
+            }
+            if (user == null || !user.getId().equals(waiting.id())) {
+                reservations.leaveWaitlist(datum, waiting.id());
+                continue;
+            }
+            synchronized (user) {
+                if (user.getBalance() < waiting.fee()) {
+                    reservations.leaveWaitlist(datum, waiting.id());
+                    continue;
+                }
+                persistLock.readLock().lock();
+                try {
+                    if (!reservations.promote(datum, waiting)) {
+                        continue;
+                    }
+                    persistence.reservationChanged(ReservationJournal.BOOKED, datum, waiting.id());
+                } finally {
+                    persistLock.readLock().unlock();
+                }
+                user.setReservations(datum, waiting.fee());
+            }
+            saveUser(user);
+            return;
         }
     }
 
     /**
-     * Converts fee
-     * @param man checks the gender of user
-     * @param balance balance to be converted
+     * Cancels the date, gives the fee back and queues the change for the journal together with the user
+     * @param user user who cancels, the caller holds its lock
+     * @param datum reservation date
+     * @param fee fee which is given back
+     * @return boolean: was the user reserved?
      */
-    public void setFee(boolean man, Balance balance) {
-        if (man) currentFee = balance;
-        else currentFee = new Balance(balance.currency(), balance.amount() * .5f);
+    boolean cancelAndJournal(User user, LocalDate datum, float fee) {
+        persistLock.readLock().lock();
+        try {
+            boolean cancelled = reservations.cancel(datum, user.getId());
+            if (cancelled) {
+                user.removeReservation(datum, fee);
+                persistence.reservationCancelled(datum, user);
+            }
+            return cancelled;
+        } finally {
+            persistLock.readLock().unlock();
+        }
     }
 
     /**
-     * Deletes reservation from a list, gives user back their money
+     * Gives fee for the country and gender
      * @param country string of country to decide, which fee should be used
-     * @param day     day in a date
-     * @param month   month in a date
-     * @param year    year in a date
-     * @return boolean is reservation deleted?
-     */
-    public boolean deleteReservation(String country, int day, int month, int year) {
-        setCurrentFee(country);
-        LocalDate datum = LocalDate.of(year, month, day);
-        if (!reservations.containsKey(datum)) {
-            return false;
-        }
-        reservations.get(datum).remove(user.getId());
-        user.removeReservation(datum, currentFee.amount());
-        saveReservation();
-        return true;
+     * @param gender users gender
+     * @return fee for one reservation
+     */
+    public Balance getFee(String country, GymTools.Gender gender) {
+        Balance balance = country.equals("CZ") ? feeCz : feeUs;
+        if (gender == GymTools.Gender.M) return balance;
+        return new Balance(balance.currency(), balance.amount() * .5f);
     }
 
 }
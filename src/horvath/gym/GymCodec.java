@@ -0,0 +1,439 @@
+package horvath.gym;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.*;
+
+/**
+ * Binary format of gym, user and reservation files
+ * <p>
+ * Every file starts with a header: magic number, format version and kind of the content.
+ * Dates are stored as epoch days, ids as two longs and strings as UTF-8 with their length.
+ * Files written by Java serialization are still readable and are rewritten in this format
+ * when they are loaded. Files are written atomically with checksum, damaged file is replaced
+ * by its previous version, see {@link GymTools#writeAtomically}.
+ *
+ * @author Marcel Horváth
+ */
+public class GymCodec {
+    public static final int MAGIC = 0x47594D42;
+    public static final short VERSION = 2;
+    public static final byte KIND_GYM = 1;
+    public static final byte KIND_USER = 2;
+    public static final byte KIND_RESERVATIONS = 3;
+    private static final int HEADER_SIZE = 7;
+    private static final short LEGACY_MAGIC = (short) 0xACED;
+
+    private interface Saver<T> {
+        void save(T value, Path path) throws IOException;
+    }
+
+    private record Loaded<T>(T value, boolean legacy) {
+    }
+
+    /**
+     * Loads gym file, migrates file saved by Java serialization
+     * @param path path to the gym file
+     * @return loaded gym
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    public static Gym loadGym(Path path) throws IOException, ClassNotFoundException {
+        return load(path, GymCodec::decodeGym, GymCodec::decodeGym, GymCodec::saveGym);
+    }
+
+    public static void saveGym(Gym gym, Path path) throws IOException {
+        write(encodeGym(gym), path);
+    }
+
+    /**
+     * Saves the gym file only if the saved configuration is different, so opening a gym does not write it again
+     * @param gym gym to be saved
+     * @param path path to the gym file
+     * @return boolean: was the file written?
+     * @throws IOException
+     */
+    public static boolean saveGymIfChanged(Gym gym, Path path) throws IOException {
+        ByteBuffer encoded = encodeGym(gym);
+        if (Files.isRegularFile(path)) {
+            try {
+                if (GymTools.readVerified(path).equals(encoded)) {
+                    return false;
+                }
+            } catch (IOException | RuntimeException e) {
+                // damaged file is written again
+            }
+        }
+        write(encoded, path);
+        return true;
+    }
+
+    /**
+     * Loads user file, migrates file saved by Java serialization
+     * @param path path to the user file
+     * @return loaded user
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    public static User loadUser(Path path) throws IOException, ClassNotFoundException {
+        return load(path, GymCodec::decodeUser, GymCodec::decodeUser, GymCodec::saveUser);
+    }
+
+    /**
+     * Reads user file or its backup in any version without saving anything
+     * @param path path to the user file
+     * @return loaded user
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    public static User readUser(Path path) throws IOException, ClassNotFoundException {
+        return GymTools.readLastGood(path, buffer -> isLegacy(buffer) ? (User) GymTools.deserialize(buffer) : decodeUser(buffer));
+    }
+
+    public static void saveUser(User user, Path path) throws IOException {
+        write(encodeUser(user), path);
+    }
+
+    /**
+     * Loads reservation snapshot, migrates file saved by Java serialization
+     * @param path path to the reservation file
+     * @return loaded reservations
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    public static HashMap<LocalDate, List<UUID>> loadReservations(Path path) throws IOException, ClassNotFoundException {
+        return load(path, GymCodec::decodeReservations, GymCodec::decodeReservations, GymCodec::saveReservations);
+    }
+
+    /**
+     * Loads reservation snapshot, if it is damaged loads its backup with changes from the backup journal
+     * @param path path to the reservation file
+     * @param olderJournal journal of changes made between the backup and the snapshot
+     * @return loaded reservations
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    public static HashMap<LocalDate, List<UUID>> loadReservations(Path path, Path olderJournal) throws IOException, ClassNotFoundException {
+        return load(path, GymCodec::decodeReservations, buffer -> {
+            HashMap<LocalDate, List<UUID>> reservations = decodeReservations(buffer);
+            ReservationJournal.replay(reservations, olderJournal);
+            return reservations;
+        }, GymCodec::saveReservations);
+    }
+
+    public static void saveReservations(Map<LocalDate, List<UUID>> reservations, Path path) throws IOException {
+        write(encodeReservations(reservations), path);
+    }
+
+    /**
+     * Loads the file or its last good version, file saved by Java serialization is saved again in this format
+     * @param path path to the file
+     * @param decoder decodes content of the file
+     * @param backupDecoder decodes content of the backup
+     * @param migration saves the loaded content
+     * @return loaded content
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T load(Path path, GymTools.Loader<T> decoder, GymTools.Loader<T> backupDecoder,
+                              Saver<? super T> migration) throws IOException, ClassNotFoundException {
+        Loaded<T> loaded = GymTools.loadLastGood(path, buffer -> isLegacy(buffer)
+                ? new Loaded<>((T) GymTools.deserialize(buffer), true)
+                : new Loaded<>(decoder.load(buffer), false), buffer -> isLegacy(buffer)
+                ? new Loaded<>((T) GymTools.deserialize(buffer), true)
+                : new Loaded<>(backupDecoder.load(buffer), false));
+        if (loaded.legacy()) {
+            migration.save(loaded.value(), path);
+        }
+        return loaded.value();
+    }
+
+    /**
+     * Encodes gym configuration, reservations are saved separately
+     * @param gym gym to be encoded
+     * @return buffer ready to be read
+     */
+    public static ByteBuffer encodeGym(Gym gym) {
+        Encoder out = new Encoder(64, KIND_GYM);
+        out.putString(gym.getGymName());
+        out.ensure(4);
+        out.buffer.putInt(gym.getMaxPeople());
+        out.putString(gym.getGymRoot().getPath());
+        out.putBalance(gym.getFeeCzBalance());
+        out.putBalance(gym.getFeeUsBalance());
+        out.ensure(1);
+        out.buffer.put((byte) gym.getStoreKind().ordinal());
+        return out.finish();
+    }
+
+    public static Gym decodeGym(ByteBuffer buffer) throws IOException {
+        short version = checkHeader(buffer, KIND_GYM);
+        String gymName = getString(buffer);
+        int maxPeople = buffer.getInt();
+        File gymRoot = new File(getString(buffer));
+        Balance feeCz = getBalance(buffer);
+        Balance feeUs = getBalance(buffer);
+        GymStore.Kind storeKind = version >= 2 ? GymStore.Kind.values()[buffer.get()] : GymStore.Kind.FILE;
+        return new Gym(gymName, maxPeople, gymRoot, feeCz, feeUs, storeKind);
+    }
+
+    /**
+     * Encodes user with their reservations and records
+     * @param user user to be encoded
+     * @return buffer ready to be read
+     */
+    public static ByteBuffer encodeUser(User user) {
+        Encoder out = new Encoder(256, KIND_USER);
+        out.putId(user.getId());
+        out.putString(user.getName());
+        out.putString(user.getLastName());
+        out.ensure(1 + 8 + 4);
+        out.buffer.put((byte) user.getGender().ordinal());
+        out.buffer.putDouble(user.getBalance());
+        out.putString(user.getPassword());
+        putSections(out, user);
+        return out.finish();
+    }
+
+    public static User decodeUser(ByteBuffer buffer) {
+        checkHeader(buffer, KIND_USER);
+        UUID id = getId(buffer);
+        String name = getString(buffer);
+        String lastName = getString(buffer);
+        GymTools.Gender gender = GymTools.Gender.values()[buffer.get()];
+        double balance = buffer.getDouble();
+        String password = getString(buffer);
+        ByteBuffer sections = buffer.slice();
+        return new User(id, name, lastName, gender, password, balance, sections::duplicate);
+    }
+
+    /**
+     * Encodes only reservations and records of the user, without file header
+     * @param user user to be encoded
+     * @return buffer ready to be read
+     */
+    public static ByteBuffer encodeSections(User user) {
+        Encoder out = new Encoder(256);
+        putSections(out, user);
+        return out.finish();
+    }
+
+    /**
+     * Decodes reservations from encoded sections of the user
+     * @param buffer sections from the beginning
+     * @return reserved days
+     */
+    static LinkedHashSet<LocalDate> decodeUserReservations(ByteBuffer buffer) {
+        int reservationCount = buffer.getInt();
+        LinkedHashSet<LocalDate> userReservations = new LinkedHashSet<>();
+        for (int i = 0; i < reservationCount; i++) {
+            userReservations.add(LocalDate.ofEpochDay(buffer.getInt()));
+        }
+        return userReservations;
+    }
+
+    /**
+     * Decodes records from encoded sections of the user, reservations before them are skipped
+     * @param buffer sections from the beginning
+     * @return records
+     */
+    static ExerciseRecords decodeRecords(ByteBuffer buffer) {
+        buffer.position(buffer.position() + 4 + 4 * buffer.getInt(buffer.position()));
+        int exerciseCount = buffer.getInt();
+        ExerciseRecords records = new ExerciseRecords();
+        for (int i = 0; i < exerciseCount; i++) {
+            String exercise = getString(buffer);
+            int weightCount = buffer.getInt();
+            for (int j = 0; j < weightCount; j++) {
+                records.add(exercise, buffer.getInt());
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Sections which were not decoded yet are copied as they are
+     */
+    private static void putSections(Encoder out, User user) {
+        ByteBuffer encoded = user.getEncodedSections();
+        if (encoded != null) {
+            out.ensure(encoded.remaining());
+            out.buffer.put(encoded);
+            return;
+        }
+        Collection<LocalDate> userReservations = user.getUserReservations();
+        out.ensure(4 + userReservations.size() * 4);
+        out.buffer.putInt(userReservations.size());
+        for (LocalDate datum : userReservations) {
+            out.buffer.putInt((int) datum.toEpochDay());
+        }
+        out.ensure(4);
+        ExerciseRecords records = user.getExerciseRecords();
+        out.buffer.putInt(records.size());
+        for (ExerciseRecords.Lifts lifts : records.inOrder(ExerciseRecords.NATURAL_ORDER)) {
+            out.putString(lifts.getName());
+            out.ensure(4 + lifts.size() * 4);
+            out.buffer.putInt(lifts.size());
+            for (int i = 0; i < lifts.size(); i++) {
+                out.buffer.putInt(lifts.get(i));
+            }
+        }
+    }
+
+    /**
+     * Encodes reservations as list of days, every day with ids of reserved users
+     * @param reservations reservations to be encoded
+     * @return buffer ready to be read
+     */
+    public static ByteBuffer encodeReservations(Map<LocalDate, List<UUID>> reservations) {
+        Encoder out = new Encoder(16 + reservations.size() * 8, KIND_RESERVATIONS);
+        out.buffer.putInt(reservations.size());
+        for (Map.Entry<LocalDate, List<UUID>> day : reservations.entrySet()) {
+            out.ensure(8 + day.getValue().size() * 16);
+            out.buffer.putInt((int) day.getKey().toEpochDay());
+            out.buffer.putInt(day.getValue().size());
+            for (UUID id : day.getValue()) {
+                out.buffer.putLong(id.getMostSignificantBits()).putLong(id.getLeastSignificantBits());
+            }
+        }
+        return out.finish();
+    }
+
+    public static HashMap<LocalDate, List<UUID>> decodeReservations(ByteBuffer buffer) {
+        checkHeader(buffer, KIND_RESERVATIONS);
+        int dayCount = buffer.getInt();
+        HashMap<LocalDate, List<UUID>> reservations = new HashMap<>(dayCount * 4 / 3 + 1);
+        for (int i = 0; i < dayCount; i++) {
+            LocalDate datum = LocalDate.ofEpochDay(buffer.getInt());
+            int count = buffer.getInt();
+            List<UUID> ids = new ArrayList<>(count);
+            for (int j = 0; j < count; j++) {
+                ids.add(getId(buffer));
+            }
+            reservations.put(datum, ids);
+        }
+        return reservations;
+    }
+
+    /**
+     * Reads only the list of days of the reservation snapshot, ids are left in the buffer
+     * @param buffer encoded reservations, it must not be changed while the snapshot is used
+     * @return view of the snapshot
+     */
+    public static ReservationSnapshot decodeReservationDays(ByteBuffer buffer) {
+        checkHeader(buffer, KIND_RESERVATIONS);
+        int dayCount = buffer.getInt();
+        int[] epochDays = new int[dayCount];
+        int[] positions = new int[dayCount];
+        int[] counts = new int[dayCount];
+        for (int i = 0; i < dayCount; i++) {
+            epochDays[i] = buffer.getInt();
+            counts[i] = buffer.getInt();
+            positions[i] = buffer.position();
+            if (counts[i] < 0 || counts[i] > buffer.remaining() / 16) {
+                throw new GymException("file could not be loaded", 104, "damaged reservations");
+            }
+            buffer.position(positions[i] + counts[i] * 16);
+        }
+        return new ReservationSnapshot(buffer, epochDays, positions, counts);
+    }
+
+    /**
+     * Checks if the content was written by Java serialization
+     * @param buffer content of the file
+     * @return boolean: is it old format?
+     */
+    public static boolean isLegacy(ByteBuffer buffer) {
+        return buffer.remaining() >= 2 && buffer.getShort(buffer.position()) == LEGACY_MAGIC;
+    }
+
+    /**
+     * Writes whole buffer to the file atomically
+     * @param buffer buffer ready to be read
+     * @param path path where to save
+     * @throws IOException
+     */
+    public static void write(ByteBuffer buffer, Path path) throws IOException {
+        GymTools.writeAtomically(buffer, path);
+    }
+
+    private static short checkHeader(ByteBuffer buffer, byte kind) {
+        if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC) {
+            throw new GymException("file could not be loaded", 104, "unknown file format");
+        }
+        short version = buffer.getShort();
+        if (version > VERSION) {
+            throw new GymException("file could not be loaded", 104, "unsupported version " + version);
+        }
+        if (buffer.get() != kind) {
+            throw new GymException("file could not be loaded", 104, "unexpected content");
+        }
+        return version;
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static UUID getId(ByteBuffer buffer) {
+        return new UUID(buffer.getLong(), buffer.getLong());
+    }
+
+    private static Balance getBalance(ByteBuffer buffer) {
+        byte[] code = new byte[3];
+        buffer.get(code);
+        return new Balance(Currency.getInstance(new String(code, StandardCharsets.US_ASCII)), buffer.getFloat());
+    }
+
+    /**
+     * Growing buffer for encoding
+     */
+    private static class Encoder {
+        private ByteBuffer buffer;
+
+        private Encoder(int capacity) {
+            buffer = ByteBuffer.allocate(Math.max(capacity, HEADER_SIZE));
+        }
+
+        private Encoder(int capacity, byte kind) {
+            this(capacity);
+            buffer.putInt(MAGIC).putShort(VERSION).put(kind);
+        }
+
+        private void ensure(int bytes) {
+            if (buffer.remaining() < bytes) {
+                ByteBuffer bigger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+                bigger.put(buffer.flip());
+                buffer = bigger;
+            }
+        }
+
+        private void putString(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            ensure(4 + bytes.length);
+            buffer.putInt(bytes.length).put(bytes);
+        }
+
+        private void putId(UUID id) {
+            ensure(16);
+            buffer.putLong(id.getMostSignificantBits()).putLong(id.getLeastSignificantBits());
+        }
+
+        private void putBalance(Balance balance) {
+            ensure(7);
+            buffer.put(balance.currency().getCurrencyCode().getBytes(StandardCharsets.US_ASCII)).putFloat(balance.amount());
+        }
+
+        private ByteBuffer finish() {
+            return buffer.flip();
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package horvath.gym;
+
+import java.nio.file.Path;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.*;
+
+/**
+ * Generator of synthetic gyms for load tests and benchmarks
+ * <p>
+ * Members are registered, book days and log workouts through the same sessions as real users,
+ * so the data end up in the normal layout of the chosen storage. Some members come much more
+ * often than others, every day is filled close to the maximum of people (weekends a bit less)
+ * and records are histories of slowly growing lifts. The same seed always gives the same gym.
+ *
+ * @author Marcel Horváth
+ */
+public class GymGenerator {
+    public static final String PASSWORD = "password";
+    public static final LocalDate FIRST_DAY = LocalDate.of(2023, 1, 1);
+    public static final String[] EXERCISES = {"BENCH", "SQUAT", "DEADLIFT", "PRESS", "ROW", "CURL", "DIP", "PULLUP", "LUNGE", "SHRUG"};
+    private static final int[] BASE_WEIGHTS = {60, 80, 100, 40, 50, 15, 20, 10, 30, 60};
+    private static final String[] NAMES_M = {"Jan", "Petr", "Pavel", "Tomas", "Martin", "Jakub", "David", "Lukas", "Marek", "Ondrej"};
+    private static final String[] NAMES_F = {"Eliska", "Tereza", "Anna", "Lucie", "Petra", "Jana", "Klara", "Adela", "Marie", "Zuzana"};
+    private static final String[] LAST_NAMES = {"Novak", "Svoboda", "Dvorak", "Cerny", "Prochazka", "Kucera", "Vesely", "Horak", "Nemec", "Marek"};
+    private static final int TOP_UP = 1000;
+    private static final long DAY_MILLIS = 24 * 60 * 60 * 1000L;
+
+    /**
+     * Generates the gym and writes all its data to the storage
+     * @param root directory of the gym
+     * @param gymName name of the gym
+     * @param kind kind of the storage
+     * @param maxPeople maximum of people for one day
+     * @param members number of members
+     * @param days number of days with reservations, starting with FIRST_DAY
+     * @param recordsPerMember number of records of every member
+     * @param seed seed of the random generator
+     * @return opened gym, has to be closed by the caller
+     */
+    public static Gym generate(Path root, String gymName, GymStore.Kind kind, int maxPeople, int members, int days,
+                               int recordsPerMember, long seed) {
+        return generate(root, gymName, kind, maxPeople, members, days, recordsPerMember, seed, Credentials.DEFAULT_ITERATIONS);
+    }
+
+    /**
+     * Generates the gym with the chosen cost of password hashes
+     * All members have password PASSWORD, it is hashed only once and the hash is shared by them.
+     * @param hashIterations PBKDF2 iterations of the password hash
+     * @return opened gym, has to be closed by the caller
+     */
+    public static Gym generate(Path root, String gymName, GymStore.Kind kind, int maxPeople, int members, int days,
+                               int recordsPerMember, long seed, int hashIterations) {
+        if (members <= 0 || days < 0 || recordsPerMember < 0) {
+            throw new GymException("Bad input", 103, "members have to be positive, days and records not negative");
+        }
+        Random random = new Random(seed);
+        Gym gym = new Gym(gymName, maxPeople, root, 100, 5, kind);
+        gym.configureCredentials(hashIterations, Credentials.DEFAULT_TOKEN_CACHE_SIZE);
+        String passwordHash = gym.getCredentials().hash(PASSWORD);
+        List<GymSession> sessions = new ArrayList<>(members);
+        double[] cumulativeWeights = new double[members];
+        double total = 0;
+        for (int i = 0; i < members; i++) {
+            GymSession session = gym.register(newMember(i, random, passwordHash));
+            session.addBalance(TOP_UP);
+            addRecords(session, recordsPerMember, random);
+            sessions.add(session);
+            total += 1 / Math.pow(1 + random.nextInt(members), 0.8);
+            cumulativeWeights[i] = total;
+        }
+        for (int d = 0; d < days; d++) {
+            LocalDate datum = FIRST_DAY.plusDays(d);
+            book(sessions, cumulativeWeights, datum, maxPeople, random);
+        }
+        for (GymSession session : sessions) {
+            session.save();
+            if (!session.getUser().getExerciseRecords().isEmpty()) {
+                session.printRecords();
+            }
+        }
+        gym.flush();
+        gym.saveReservation();
+        return gym;
+    }
+
+    private static User newMember(int index, Random random, String passwordHash) {
+        GymTools.Gender gender = random.nextInt(100) < 60 ? GymTools.Gender.M : GymTools.Gender.F;
+        String name = (gender == GymTools.Gender.M ? NAMES_M : NAMES_F)[random.nextInt(NAMES_M.length)];
+        String lastName = LAST_NAMES[random.nextInt(LAST_NAMES.length)] + index;
+        long msb = random.nextLong() & ~0xF000L | 0x4000L;
+        long lsb = random.nextLong() & ~0xC000000000000000L | 0x8000000000000000L;
+        return new User(new UUID(msb, lsb), name, lastName, gender, passwordHash);
+    }
+
+    /**
+     * Adds history of lifts, every member trains only some of the exercises
+     */
+    private static void addRecords(GymSession session, int count, Random random) {
+        int trained = 3 + random.nextInt(4);
+        int first = random.nextInt(EXERCISES.length);
+        double strength = (session.getUser().getGender() == GymTools.Gender.M ? 1.0 : 0.6) * (0.7 + random.nextDouble() * 0.6);
+        double[] current = new double[trained];
+        for (int e = 0; e < trained; e++) {
+            current[e] = BASE_WEIGHTS[(first + e) % EXERCISES.length] * strength;
+        }
+        long time = FIRST_DAY.toEpochDay() * DAY_MILLIS;
+        for (int r = 0; r < count; r++) {
+            int e = random.nextInt(trained);
+            current[e] *= 1 + random.nextGaussian() * 0.02 + 0.005;
+            time += DAY_MILLIS + random.nextInt((int) DAY_MILLIS);
+            session.logWorkout(time, EXERCISES[(first + e) % EXERCISES.length], Math.max(1, (int) Math.round(current[e])),
+                    3 + random.nextInt(8), 3 + random.nextInt(3));
+        }
+    }
+
+    /**
+     * Books the day until it is almost full, frequent members are chosen more often
+     */
+    private static void book(List<GymSession> sessions, double[] cumulativeWeights, LocalDate datum, int maxPeople, Random random) {
+        DayOfWeek day = datum.getDayOfWeek();
+        double fill = day == DayOfWeek.SATURDAY || day == DayOfWeek.SUNDAY ? 0.7 : 0.85 + random.nextDouble() * 0.15;
+        int target = Math.min(sessions.size(), (int) Math.round(maxPeople * fill));
+        int booked = 0;
+        for (int attempt = 0; booked < target && attempt < target * 4; attempt++) {
+            int index = Arrays.binarySearch(cumulativeWeights, random.nextDouble() * cumulativeWeights[cumulativeWeights.length - 1]);
+            GymSession session = sessions.get(index < 0 ? Math.min(-index - 1, sessions.size() - 1) : index);
+            int result = session.setReservation("CZ", datum.getDayOfMonth(), datum.getMonthValue(), datum.getYear());
+            if (result == 1) {
+                session.addBalance(TOP_UP);
+                result = session.setReservation("CZ", datum.getDayOfMonth(), datum.getMonthValue(), datum.getYear());
+            }
+            if (result == ReservationBook.RESERVED) {
+                booked++;
+            } else if (result == ReservationBook.FULL) {
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package horvath.gym;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.stream.Collector;
+
+/**
+ * Gym-wide report: occupancy heatmap, revenue by currency and exercise leaderboards
+ * <p>
+ * All accounts and all reserved days are scanned by parallel streams. Every thread collects
+ * its own partial report and the parts are merged at the end, so threads do not share anything
+ * while they scan. The booking country is not saved with a reservation, so revenue is counted
+ * for every reservation in both currencies by the fees of the gym.
+ *
+ * @author Marcel Horváth
+ */
+public class GymReport {
+    private final int members;
+    private final int maxPeople;
+    private final double revenueCz;
+    private final double revenueUs;
+    private final Days days;
+    private final Map<String, Long> exerciseCounts;
+    private final Map<String, List<Lift>> leaderboards;
+
+    /**
+     * Best lift of one member in the leaderboard
+     */
+    public record Lift(String member, int weight) {
+        /** The heaviest lift first, members with the same weight by login */
+        private static final Comparator<Lift> ORDER = Comparator.comparingInt(Lift::weight).reversed().thenComparing(Lift::member);
+
+        @Override
+        public String toString() {
+            return member + " " + weight;
+        }
+    }
+
+    private GymReport(int members, int maxPeople, double revenueCz, double revenueUs, Days days,
+                      Map<String, Long> exerciseCounts, Map<String, List<Lift>> leaderboards) {
+        this.members = members;
+        this.maxPeople = maxPeople;
+        this.revenueCz = revenueCz;
+        this.revenueUs = revenueUs;
+        this.days = days;
+        this.exerciseCounts = exerciseCounts;
+        this.leaderboards = leaderboards;
+    }
+
+    /**
+     * Partial occupancy of the days scanned by one thread
+     */
+    private static class Days {
+        /** Sum of occupancy of days by day of week and month */
+        private final long[][] occupancy = new long[7][12];
+        /** Number of reserved days by day of week and month */
+        private final int[][] count = new int[7][12];
+
+        private void add(LocalDate datum, int people) {
+            int dayOfWeek = datum.getDayOfWeek().getValue() - 1;
+            int month = datum.getMonthValue() - 1;
+            occupancy[dayOfWeek][month] += people;
+            count[dayOfWeek][month]++;
+        }
+
+        private Days merge(Days other) {
+            for (int d = 0; d < 7; d++) {
+                for (int m = 0; m < 12; m++) {
+                    occupancy[d][m] += other.occupancy[d][m];
+                    count[d][m] += other.count[d][m];
+                }
+            }
+            return this;
+        }
+    }
+
+    /**
+     * Partial report of the accounts scanned by one thread
+     */
+    private static class Accounts {
+        private final int leaderboardSize;
+        private int members;
+        private long reservationsM;
+        private long reservationsF;
+        private final Map<String, Long> exerciseCounts = new HashMap<>();
+        /** Best lifts of every exercise, the lowest of them on the top of the heap */
+        private final Map<String, PriorityQueue<Lift>> leaderboards = new HashMap<>();
+
+        private Accounts(int leaderboardSize) {
+            this.leaderboardSize = leaderboardSize;
+        }
+
+        private void add(User user) {
+            members++;
+            if (user.getGender() == GymTools.Gender.M) {
+                reservationsM += user.getUserReservations().size();
+            } else {
+                reservationsF += user.getUserReservations().size();
+            }
+            String member = GymStore.login(user);
+            for (ExerciseRecords.Lifts lifts : user.getExerciseRecords().inOrder(ExerciseRecords.NATURAL_ORDER)) {
+                exerciseCounts.merge(lifts.getName(), (long) lifts.size(), Long::sum);
+                offer(lifts.getName(), new Lift(member, lifts.getBest()));
+            }
+        }
+
+        private void offer(String exercise, Lift lift) {
+            PriorityQueue<Lift> best = leaderboards.computeIfAbsent(exercise,
+                    e -> new PriorityQueue<>(leaderboardSize + 1, Lift.ORDER.reversed()));
+            if (best.size() < leaderboardSize) {
+                best.add(lift);
+            } else if (Lift.ORDER.compare(lift, best.peek()) < 0) {
+                best.poll();
+                best.add(lift);
+            }
+        }
+
+        private double revenue(Gym gym, String country) {
+            return reservationsM * (double) gym.getFee(country, GymTools.Gender.M).amount()
+                    + reservationsF * (double) gym.getFee(country, GymTools.Gender.F).amount();
+        }
+
+        private Accounts merge(Accounts other) {
+            members += other.members;
+            reservationsM += other.reservationsM;
+            reservationsF += other.reservationsF;
+            other.exerciseCounts.forEach((exercise, count) -> exerciseCounts.merge(exercise, count, Long::sum));
+            other.leaderboards.forEach((exercise, lifts) -> lifts.forEach(lift -> offer(exercise, lift)));
+            return this;
+        }
+    }
+
+    /**
+     * Creates the report, queued changes are saved first, so all accounts are up to date
+     * @param gym scanned gym
+     * @param leaderboardSize number of members in the leaderboard of every exercise
+     * @return report
+     */
+    public static GymReport create(Gym gym, int leaderboardSize) {
+        gym.flush();
+        GymStore store = gym.getStore();
+        Accounts accounts;
+        try {
+            accounts = store.listUsers().parallelStream()
+                    .map(login -> {
+                        try {
+                            return store.loadUser(login);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    })
+                    .filter(Objects::nonNull)
+                    .collect(Collector.of(() -> new Accounts(leaderboardSize), Accounts::add, Accounts::merge));
+        } catch (IOException | UncheckedIOException e) {
+            throw new GymException("file could not be loaded", 104);
+        }
+
+        Map<String, Long> exerciseCounts = new LinkedHashMap<>();
+        accounts.exerciseCounts.entrySet().stream()
+                .sorted(Map.Entry.<String, Long>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()))
+                .forEach(entry -> exerciseCounts.put(entry.getKey(), entry.getValue()));
+        Map<String, List<Lift>> leaderboards = new TreeMap<>();
+        accounts.leaderboards.forEach((exercise, best) -> {
+            List<Lift> lifts = new ArrayList<>(best);
+            lifts.sort(Lift.ORDER);
+            leaderboards.put(exercise, lifts);
+        });
+
+        Days days = gym.getReservations().entrySet().parallelStream()
+                .collect(Collector.of(Days::new, (partial, day) -> partial.add(day.getKey(), day.getValue().size()), Days::merge));
+        return new GymReport(accounts.members, gym.getMaxPeople(), accounts.revenue(gym, "CZ"), accounts.revenue(gym, "US"),
+                days, exerciseCounts, leaderboards);
+    }
+
+    public int getMembers() {
+        return members;
+    }
+
+    /**
+     * Gives revenue of all reservations in both currencies
+     * @return revenue in CZK and in USD
+     */
+    public List<Balance> getRevenue() {
+        return List.of(new Balance(Currency.getInstance("CZK"), (float) revenueCz),
+                new Balance(Currency.getInstance("USD"), (float) revenueUs));
+    }
+
+    /**
+     * Gives average occupancy of reserved days as part of the maximum of people
+     * @return rows are days of week from Monday, columns are months from January, -1 if there is no reserved day
+     */
+    public double[][] getHeatmap() {
+        double[][] heatmap = new double[7][12];
+        for (int d = 0; d < 7; d++) {
+            for (int m = 0; m < 12; m++) {
+                heatmap[d][m] = days.count[d][m] == 0 ? -1 : (double) days.occupancy[d][m] / days.count[d][m] / maxPeople;
+            }
+        }
+        return heatmap;
+    }
+
+    /**
+     * Gives number of records of every exercise, the most lifted exercise first
+     */
+    public Map<String, Long> getExerciseCounts() {
+        return exerciseCounts;
+    }
+
+    /**
+     * Gives the best lifts of every exercise, the heaviest first
+     */
+    public Map<String, List<Lift>> getLeaderboards() {
+        return leaderboards;
+    }
+
+    /**
+     * Formats the report as text
+     * @return report with heatmap in percent
+     */
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        String line = System.lineSeparator();
+        text.append("members: ").append(members).append(line);
+        text.append("revenue: ").append(getRevenue()).append(line);
+        text.append("occupancy %:").append(line).append("    ");
+        for (int m = 1; m <= 12; m++) {
+            text.append(String.format("%4d", m));
+        }
+        String[] dayNames = {"Mo", "Tu", "We", "Th", "Fr", "Sa", "Su"};
+        double[][] heatmap = getHeatmap();
+        for (int d = 0; d < 7; d++) {
+            text.append(line).append(String.format("%-4s", dayNames[d]));
+            for (int m = 0; m < 12; m++) {
+                text.append(heatmap[d][m] < 0 ? "   -" : String.format("%4.0f", heatmap[d][m] * 100));
+            }
+        }
+        text.append(line).append("exercises: ").append(exerciseCounts).append(line);
+        leaderboards.forEach((exercise, lifts) -> text.append(exercise).append(": ").append(lifts).append(line));
+        return text.toString();
+    }
+}
@@ -0,0 +1,299 @@
+package horvath.gym;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Session of one logged user, all reservations, balance and records go through it
+ * <p>
+ * Sessions of different users are independent, so one gym can serve many of them at once.
+ * Changes of the user are made while holding its lock, so the background writer never saves half of a change.
+ *
+ * @author Marcel Horváth
+ */
+public class GymSession {
+    private final Gym gym;
+    private final User user;
+    /** Token of the verified password, null if tokens are not kept */
+    private final String token;
+    private Balance currentFee;
+    private boolean open = true;
+
+    GymSession(Gym gym, User user, String token) {
+        this.gym = gym;
+        this.user = user;
+        this.token = token;
+    }
+
+    public Gym getGym() {
+        return gym;
+    }
+
+    public User getUser() {
+        return user;
+    }
+
+    /**
+     * Gives token which logs the user in again by {@link Gym#resume} until it expires
+     */
+    public String getToken() {
+        return token;
+    }
+
+    public Balance getCurrentFee() {
+        return currentFee;
+    }
+
+    public boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * Sets current fee
+     * @param country string of country to decide, which fee should be used
+     */
+    public void setCurrentFee(String country) {
+        currentFee = gym.getFee(country, user.getGender());
+    }
+
+    /**
+     * Sets a reservation for an inputted date,
+     * checks if user has money and if there are not a lot of people reserved for one date
+     *
+     * @param country string of country to decide, which fee should be used
+     * @param day     day in a date
+     * @param month   month in a date
+     * @param year    year in a date
+     * @return result of reservation: 0 - reservation was set, 1 - Not enough fund, 2 - Already reserved, 3 - Too many people reserved
+     */
+    public int setReservation(String country, int day, int month, int year) {
+        checkOpen();
+        setCurrentFee(country);
+        LocalDate datum = LocalDate.of(year, month, day);
+        synchronized (user) {
+            if (user.getBalance() < currentFee.amount()) {
+                return 1;
+            }
+            if (user.hasReservation(datum)) {
+                return ReservationBook.ALREADY_RESERVED;
+            }
+            return gym.bookAndJournal(user, datum, currentFee.amount());
+        }
+    }
+
+    /**
+     * Makes reservations of all the dates or of none of them
+     * <p>
+     * Capacity of every date and funds for all of them are checked before anything is booked.
+     * @param country string of country to decide, which fee should be used
+     * @param days reservation dates, for example from {@link GymTools#recurringDates}
+     * @return result RESERVED, 1 if balance is too low for all dates, ALREADY_RESERVED or FULL with the date
+     */
+    public ReservationBook.BatchResult setReservations(String country, List<LocalDate> days) {
+        checkOpen();
+        setCurrentFee(country);
+        List<LocalDate> distinct = days.stream().distinct().sorted().toList();
+        synchronized (user) {
+            if (user.getBalance() < currentFee.amount() * distinct.size()) {
+                return new ReservationBook.BatchResult(1, null);
+            }
+            for (LocalDate datum : distinct) {
+                if (user.hasReservation(datum)) {
+                    return new ReservationBook.BatchResult(ReservationBook.ALREADY_RESERVED, datum);
+                }
+            }
+            return gym.bookAllAndJournal(user, distinct, currentFee.amount());
+        }
+    }
+
+    /**
+     * Deletes reservation from a list, gives user back their money
+     * @param country string of country to decide, which fee should be used
+     * @param day     day in a date
+     * @param month   month in a date
+     * @param year    year in a date
+     * @return boolean is reservation deleted?
+     */
+    public boolean deleteReservation(String country, int day, int month, int year) {
+        checkOpen();
+        setCurrentFee(country);
+        LocalDate datum = LocalDate.of(year, month, day);
+        synchronized (user) {
+            if (!gym.cancelAndJournal(user, datum, currentFee.amount())) {
+                return false;
+            }
+        }
+        gym.promoteWaiting(datum);
+        return true;
+    }
+
+    /**
+     * Reserves the date, if it is full, puts the user on its waitlist.
+     * The fee is charged when the user gets the place, the balance has to cover it by then.
+     *
+     * @param country string of country to decide, which fee should be used
+     * @param day     day in a date
+     * @param month   month in a date
+     * @param year    year in a date
+     * @return 0 - reservation was set, 1 - Not enough fund, 2 - Already reserved, 4 - Waitlisted, 5 - Already waiting
+     */
+    public int reserveOrWait(String country, int day, int month, int year) {
+        checkOpen();
+        setCurrentFee(country);
+        LocalDate datum = LocalDate.of(year, month, day);
+        synchronized (user) {
+            if (user.getBalance() < currentFee.amount()) {
+                return 1;
+            }
+            if (user.hasReservation(datum)) {
+                return ReservationBook.ALREADY_RESERVED;
+            }
+            return gym.bookOrWaitAndJournal(user, datum, currentFee.amount());
+        }
+    }
+
+    /**
+     * Removes the user from the waitlist of the date
+     * @return boolean: was the user waiting?
+     */
+    public boolean leaveWaitlist(int day, int month, int year) {
+        checkOpen();
+        return gym.leaveWaitlist(LocalDate.of(year, month, day), user.getId());
+    }
+
+    /**
+     * Gives reserved days of the user from the gyms reservations
+     * @return reserved days in ascending order
+     */
+    public List<LocalDate> getReservations() {
+        return gym.getReservationsOf(user.getId());
+    }
+
+    public String getReservationsToString() {
+        return getReservations().toString().replaceAll("\\[|\\]", "");
+    }
+
+    /**
+     * Adds amount to the users balance
+     * @param amount amount to be added
+     */
+    public void addBalance(int amount) {
+        checkOpen();
+        synchronized (user) {
+            user.setBalance(amount);
+        }
+        gym.saveBalance(user);
+    }
+
+    /**
+     * Converts users balance after change of the language
+     * @param country string of country to decide, which currency should be used
+     * @param rate exchange rate
+     */
+    public void convertBalance(String country, float rate) {
+        checkOpen();
+        synchronized (user) {
+            user.convertBalance(country, rate);
+        }
+        gym.saveBalance(user);
+    }
+
+    /**
+     * Adds record of the exercise
+     * @param exercise string of record
+     * @param weight weight of the exercise
+     */
+    public void addRecord(String exercise, int weight) {
+        logWorkout(System.currentTimeMillis(), exercise, weight, 1, 1);
+    }
+
+    /**
+     * Adds workout to the workout log and its weight to the records
+     * @param time time of the workout in milliseconds since the epoch
+     * @param exercise name of the exercise
+     * @param weight lifted weight
+     * @param reps repetitions in one set
+     * @param sets number of sets
+     */
+    public void logWorkout(long time, String exercise, float weight, int reps, int sets) {
+        checkOpen();
+        try {
+            gym.getWorkoutLog(user).append(time, exercise, weight, reps, sets);
+        } catch (IOException e) {
+            throw new GymException("Files could not be saved", 105);
+        }
+        synchronized (user) {
+            user.setRecords(exercise, Math.round(weight));
+        }
+    }
+
+    /**
+     * Gives statistics of all exercises of the user, personal records, estimated maximums and volumes
+     * @return statistics in the order the exercises were first logged
+     */
+    public List<ExerciseStats> getProgress() {
+        checkOpen();
+        try {
+            return gym.getWorkoutLog(user).getAllStats();
+        } catch (IOException e) {
+            throw new GymException("file could not be loaded", 104);
+        }
+    }
+
+    /**
+     * Gives workout log of the user, its history is read at the first query
+     * @return workout log
+     */
+    public WorkoutLog getWorkoutLog() {
+        return gym.getWorkoutLog(user);
+    }
+
+    /**
+     * Sorts records and formats them
+     * @param choice 1 - reverse order, 2 - natural order
+     * @return string of formatted records
+     */
+    public String showRecords(int choice) {
+        checkOpen();
+        synchronized (user) {
+            user.sortRecords(choice);
+            return user.getRecordsToString();
+        }
+    }
+
+    /**
+     * Prints users records to the records directory of the gym
+     */
+    public void printRecords() {
+        checkOpen();
+        gym.printRecords(user);
+    }
+
+    /**
+     * Saves users data, session stays open
+     */
+    public void save() {
+        gym.saveUser(user);
+    }
+
+    /**
+     * Logs off the user, saves data and closes the session
+     */
+    public void logOff() {
+        checkOpen();
+        try {
+            gym.saveUser(user);
+        } catch (GymException e) {
+            throw new GymException("Files could not be saved", 105);
+        }
+        gym.loggedOff(user);
+        open = false;
+    }
+
+    private void checkOpen() {
+        if (!open) {
+            throw new GymException("User is logged off", 100);
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package horvath.gym;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.*;
+
+/**
+ * Storage of users, reservations and records of one gym
+ * <p>
+ * Users are addressed by their login, which is name and last name in lower case without spaces.
+ * Reservations are stored as snapshot plus changes made after it.
+ *
+ * @author Marcel Horváth
+ */
+public interface GymStore extends Closeable {
+    /**
+     * Kind of the storage, saved in the gym file
+     */
+    enum Kind {FILE, MAPPED, MEMORY}
+
+    /**
+     * Opens storage of the gym
+     * @param kind kind of the storage
+     * @param gymRoot directory of the gym, not used by MEMORY
+     * @return opened storage
+     * @throws IOException
+     */
+    static GymStore open(Kind kind, Path gymRoot) throws IOException {
+        switch (kind) {
+            case MAPPED:
+                return new MappedGymStore(gymRoot.resolve(MappedGymStore.DATA_FILE));
+            case MEMORY:
+                return new MemoryGymStore();
+            default:
+                return new FileGymStore(gymRoot);
+        }
+    }
+
+    /**
+     * Normalizes inputted name to the login
+     * @param name whole name of the user
+     * @return login
+     */
+    static String login(String name) {
+        StringBuilder login = null;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            boolean space = c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+            if (space && login == null) {
+                login = new StringBuilder(name.length()).append(name, 0, i);
+            } else if (!space && login != null) {
+                login.append(c);
+            }
+        }
+        return (login == null ? name : login.toString()).toLowerCase(Locale.ROOT);
+    }
+
+    static String login(User user) {
+        return login(user.getName() + user.getLastName());
+    }
+
+    /**
+     * Loads user
+     * @param login login of the user
+     * @return loaded user, null if there is no such user
+     * @throws IOException
+     */
+    User loadUser(String login) throws IOException;
+
+    void saveUser(User user) throws IOException;
+
+    /**
+     * Checks if the user can be saved, called before the user is queued for saving
+     * @param user new user
+     * @throws GymException if the storage can not hold the user
+     */
+    default void checkUser(User user) {
+    }
+
+    /**
+     * Saves changed balance of the user, storages which can write it in place override this
+     * @param user user with changed balance
+     * @throws IOException
+     */
+    default void saveBalance(User user) throws IOException {
+        saveUser(user);
+    }
+
+    /**
+     * Gives logins of all saved users
+     * @return list of logins
+     * @throws IOException
+     */
+    List<String> listUsers() throws IOException;
+
+    /**
+     * Gives identity of all saved users, the default loads the users in parallel
+     * @return members in any order
+     * @throws IOException
+     */
+    default List<MemberIndex.Member> listMembers() throws IOException {
+        try {
+            return listUsers().parallelStream()
+                    .map(login -> {
+                        try {
+                            return loadUser(login);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    })
+                    .filter(Objects::nonNull)
+                    .map(MemberIndex.Member::of)
+                    .toList();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Loads last snapshot of reservations with all changes made after it
+     * @return reservations, ids of users for every reserved day
+     * @throws IOException
+     */
+    HashMap<LocalDate, List<UUID>> loadReservations() throws IOException;
+
+    /**
+     * Loads last snapshot of reservations with all changes made after it into the book
+     * Storages which keep the encoded snapshot let the book decode days when they are used
+     * @param book empty book of the gym
+     * @throws IOException
+     */
+    default void loadReservations(ReservationBook book) throws IOException {
+        book.load(loadReservations());
+    }
+
+    /**
+     * Saves one change of reservations, can be called from more threads
+     * @param op ReservationJournal.BOOKED or ReservationJournal.CANCELLED
+     * @param datum reservation date
+     * @param id users id
+     * @throws IOException
+     */
+    void appendReservation(byte op, LocalDate datum, UUID id) throws IOException;
+
+    /**
+     * Checks if there are so many changes that a new snapshot should be saved
+     * @return boolean: should the snapshot be saved?
+     */
+    boolean needsCompaction();
+
+    /**
+     * Saves snapshot of all reservations and forgets changes made before it
+     * @param reservations all reservations
+     * @throws IOException
+     */
+    void saveReservations(Map<LocalDate, List<UUID>> reservations) throws IOException;
+
+    /**
+     * Opens output for exported records of the user, previous export is replaced
+     * @param user owner of the records
+     * @return channel, has to be closed by the caller
+     * @throws IOException
+     */
+    WritableByteChannel openRecords(User user) throws IOException;
+
+    /**
+     * Opens workout log of the user, the history is read only when it is needed
+     * @param user owner of the log
+     * @return log, has to be closed by the caller
+     * @throws IOException
+     */
+    WorkoutLog openWorkoutLog(User user) throws IOException;
+
+    /**
+     * Gives stamp which changes whenever saved users change, used to find changes made by somebody else
+     * @return modification stamp, storages which can not be changed from outside return 0
+     * @throws IOException
+     */
+    default long lastModified() throws IOException {
+        return 0;
+    }
+
+    /**
+     * Forces all written data to the disk, called once for every batch of changes
+     * @throws IOException
+     */
+    default void sync() throws IOException {
+    }
+}
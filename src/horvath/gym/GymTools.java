@@ -1,10 +1,13 @@
 package horvath.gym;
 
 import java.io.*;
-import java.math.BigInteger;
-import java.nio.file.Path;
-import java.security.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
 import java.util.*;
+import java.util.zip.CRC32C;
 
 /**
  * Class which contains other methods
@@ -17,6 +20,23 @@ public class GymTools {
      */
     public enum Gender {M, F}
 
+    public static final String TEMP_SUFFIX = ".tmp";
+    public static final String BACKUP_SUFFIX = ".bak";
+    /**
+     * Can a file be renamed over a file which is still mapped? Windows refuses it, and a mapping
+     * is released only when the garbage collector frees its buffer, so there mapped files are never replaced
+     */
+    public static final boolean MAPPED_FILES_REPLACEABLE = !System.getProperty("os.name", "").startsWith("Windows");
+    private static final int TRAILER_MAGIC = 0x47594D43;
+    private static final int TRAILER_SIZE = 8;
+
+    /**
+     * Reads content of a file, used by {@link #loadLastGood}
+     */
+    public interface Loader<T> {
+        T load(ByteBuffer content) throws IOException, ClassNotFoundException;
+    }
+
     /**
      * Saves object to file
      * @param obj object, which will be saved
@@ -24,90 +44,226 @@ public class GymTools {
      * @throws IOException
      */
     public static void writeObjectToDisk(Object obj, Path path) throws IOException {
-        try (ObjectOutputStream objOutStr = new ObjectOutputStream(new FileOutputStream(path.toFile()))) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream objOutStr = new ObjectOutputStream(bytes)) {
             objOutStr.writeObject(obj);
         }
+        writeAtomically(ByteBuffer.wrap(bytes.toByteArray()), path);
     }
 
     /**
-     * Loads object from a file
+     * Loads object from a file, falls back to the previous version if the file is damaged
      * @param path path to the object
      * @return loaded object
      * @throws IOException
      * @throws ClassNotFoundException
      */
     public static Object objectLoader(Path path) throws IOException, ClassNotFoundException {
-        Object obj;
-        try (ObjectInputStream objInStr = new ObjectInputStream(new FileInputStream(path.toFile()))){
-            obj = objInStr.readObject();
+        return loadLastGood(path, GymTools::deserialize);
+    }
+
+    /**
+     * Reads object written by Java serialization
+     * @param content serialized object
+     * @return loaded object
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    public static Object deserialize(ByteBuffer content) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream objInStr = new ObjectInputStream(new ByteArrayInputStream(content.array(),
+                content.arrayOffset() + content.position(), content.remaining()))) {
+            return objInStr.readObject();
         }
-        return obj;
     }
 
     /**
-     * Hashes strings
-     *
-     * @param input string, which will be hashed
-     * @return hashed string in SHA-512 format
+     * Saves content so that a crash never leaves the file half written
+     * <p>
+     * Content with checksum is written to a temporary file, forced to the disk and renamed over the file.
+     * The replaced version is kept as backup.
+     * @param buffer buffer ready to be read
+     * @param path path where to save
+     * @throws IOException
      */
-    public static String encryptThisString(String input) {
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-512");
+    public static void writeAtomically(ByteBuffer buffer, Path path) throws IOException {
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.duplicate());
+        ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE).putInt((int) crc.getValue()).putInt(TRAILER_MAGIC).flip();
+        Path temp = sibling(path, TEMP_SUFFIX);
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            while (trailer.hasRemaining()) {
+                channel.write(trailer);
+            }
+            channel.force(true);
+        }
+        if (Files.exists(path)) {
+            keepBackup(path);
+        }
+        replace(temp, path);
+    }
 
-            byte[] messageDigest = md.digest(input.getBytes());
+    /**
+     * Loads the file, if it is missing or damaged loads the backup and restores the file from it
+     * @param path path to the file
+     * @param loader reads content without checksum
+     * @return loaded content
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    public static <T> T loadLastGood(Path path, Loader<T> loader) throws IOException, ClassNotFoundException {
+        return loadLastGood(path, loader, loader);
+    }
 
-            BigInteger no = new BigInteger(1, messageDigest);
+    /**
+     * Loads the file, if it is missing or damaged loads the backup with its own loader and restores the file from it
+     * @param path path to the file
+     * @param loader reads content of the file without checksum
+     * @param backupLoader reads content of the backup without checksum
+     * @return loaded content
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    public static <T> T loadLastGood(Path path, Loader<T> loader, Loader<T> backupLoader) throws IOException, ClassNotFoundException {
+        return loadLastGood(path, loader, backupLoader, true);
+    }
 
-            StringBuilder hashtext = new StringBuilder(no.toString(16));
+    /**
+     * Loads the file, if it is missing or damaged loads the backup, nothing is written
+     * @param path path to the file
+     * @param loader reads content without checksum
+     * @return loaded content
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    public static <T> T readLastGood(Path path, Loader<T> loader) throws IOException, ClassNotFoundException {
+        return loadLastGood(path, loader, loader, false);
+    }
 
-            while (hashtext.length() < 32) {
-                hashtext.insert(0, "0");
+    private static <T> T loadLastGood(Path path, Loader<T> loader, Loader<T> backupLoader, boolean restore) throws IOException, ClassNotFoundException {
+        try {
+            return loader.load(readVerified(path));
+        } catch (IOException | RuntimeException e) {
+            Path backup = sibling(path, BACKUP_SUFFIX);
+            if (!Files.isRegularFile(backup)) {
+                throw e;
             }
-
-            return hashtext.toString();
-        } catch (NoSuchAlgorithmException e) {
-            throw new GymException("Password could not be hashed", 106);
+            T loaded;
+            try {
+                loaded = backupLoader.load(readVerified(backup));
+            } catch (IOException | RuntimeException backupFailure) {
+                e.addSuppressed(backupFailure);
+                throw e;
+            }
+            if (restore) {
+                Path temp = sibling(path, TEMP_SUFFIX);
+                Files.copy(backup, temp, StandardCopyOption.REPLACE_EXISTING);
+                replace(temp, path);
+            }
+            return loaded;
         }
     }
 
     /**
-     * Sorts hashmap by first value in natural order
-     *
-     * @param map - hashmap which has to be sorted
-     * @return sorted hashmap by values
+     * Reads whole file and checks its checksum, files without checksum are read as they are
+     * @param path path to the file
+     * @return content without checksum
+     * @throws IOException
      */
-    public static HashMap<String, List<Integer>> sortByValueNaturalOrder(HashMap<String, List<Integer>> map) {
-        List<Map.Entry<String, List<Integer>>> list = new LinkedList<>(map.entrySet());
+    public static ByteBuffer readVerified(Path path) throws IOException {
+        return verify(ByteBuffer.wrap(Files.readAllBytes(path)), path);
+    }
 
-        // Sort
-        Collections.sort(list, Comparator.comparing(o -> o.getValue().get(0)));
+    /**
+     * Maps whole file read-only and checks its checksum, nothing is copied to the heap
+     * The checksum is computed over the whole mapping, so every page is read once here.
+     * New versions are renamed over the file, which is allowed only if {@link #MAPPED_FILES_REPLACEABLE}
+     * @param path path to the file
+     * @return mapped content without checksum
+     * @throws IOException
+     */
+    public static ByteBuffer mapVerified(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return verify(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), path);
+        }
+    }
 
-        // put data from sorted list to hashmap
-        HashMap<String, List<Integer>> sortedMap = new LinkedHashMap<>();
-        for (Map.Entry<String, List<Integer>> aa : list) {
-            sortedMap.put(aa.getKey(), aa.getValue());
+    private static ByteBuffer verify(ByteBuffer buffer, Path path) {
+        int end = buffer.limit() - TRAILER_SIZE;
+        if (end < 0 || buffer.getInt(end + 4) != TRAILER_MAGIC) {
+            return buffer;
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.duplicate().limit(end));
+        if ((int) crc.getValue() != buffer.getInt(end)) {
+            throw new GymException("file could not be loaded", 104, "damaged file " + path);
         }
-        return sortedMap;
+        return buffer.limit(end);
     }
 
     /**
-     * Sorts hashmap by first value in reverse order
-     *
-     * @param map - hashmap which has to be sorted
-     * @return sorted hashmap by values
+     * Checks if the file or its backup exists
+     * @param path path to the file
+     * @return boolean: can the file be loaded?
      */
-    public static HashMap<String, List<Integer>> sortByValueReverseOrder(HashMap<String, List<Integer>> map) {
-        List<Map.Entry<String, List<Integer>>> list = new LinkedList<>(map.entrySet());
+    public static boolean exists(Path path) {
+        return Files.isRegularFile(path) || Files.isRegularFile(sibling(path, BACKUP_SUFFIX));
+    }
 
-        // Sort
-        Collections.sort(list, (o1, o2) -> (o2.getValue().get(0).compareTo(o1.getValue().get(0))));
+    /**
+     * Renames the file over the target and forces the directory, so the rename survives a crash
+     * @param source written file
+     * @param target replaced file
+     * @throws IOException
+     */
+    public static void replace(Path source, Path target) throws IOException {
+        Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Path dir = target.toAbsolutePath().getParent();
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // directories can not be opened on every system, the rename is still atomic
+        }
+    }
+
+    private static void keepBackup(Path path) throws IOException {
+        Path backup = sibling(path, BACKUP_SUFFIX);
+        Files.deleteIfExists(backup);
+        try {
+            Files.createLink(backup, path);
+        } catch (IOException | UnsupportedOperationException e) {
+            Files.copy(path, backup, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
 
-        // put data from sorted list to hashmap
-        HashMap<String, List<Integer>> sortedMap = new LinkedHashMap<>();
-        for (Map.Entry<String, List<Integer>> aa : list) {
-            sortedMap.put(aa.getKey(), aa.getValue());
+    private static Path sibling(Path path, String suffix) {
+        return path.resolveSibling(path.getFileName() + suffix);
+    }
+
+    /**
+     * Lists dates in the range which fall on the chosen days of week, for recurring reservations
+     *
+     * @param from first date
+     * @param to last date, included
+     * @param days days of week
+     * @return dates in ascending order
+     */
+    public static List<LocalDate> recurringDates(LocalDate from, LocalDate to, Set<DayOfWeek> days) {
+        if (to.isBefore(from)) {
+            throw new GymException("Bad input", 103, "last date is before the first date");
+        }
+        if (to.toEpochDay() - from.toEpochDay() > ReservationIndex.MAX_SPAN_DAYS) {
+            throw new GymException("Bad input", 103, "range of dates is too long");
+        }
+        List<LocalDate> dates = new ArrayList<>();
+        for (LocalDate datum = from; !datum.isAfter(to); datum = datum.plusDays(1)) {
+            if (days.contains(datum.getDayOfWeek())) {
+                dates.add(datum);
+            }
         }
-        return sortedMap;
+        return dates;
     }
 
 }
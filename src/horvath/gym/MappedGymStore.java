@@ -0,0 +1,329 @@
+package horvath.gym;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.zip.CRC32C;
+
+/**
+ * Storage in one memory-mapped data file with index kept in memory
+ * <p>
+ * The file is a header followed by entries: type (1 byte), key length (2 bytes), key,
+ * value length (4 bytes), value and CRC32C of the entry. New versions are appended, the index
+ * points to the newest entry of every user and records, to the newest snapshot and to journal
+ * entries written after it. An entry torn by a crash is found by its checksum when the file is
+ * opened and the file is cut off before it. Entries of version 1 files have no checksum, they get
+ * it when the file is rewritten. When old versions take more space than live data, the file is rewritten.
+ * The rewrite renames a new file over the mapped one, so it is skipped on systems which do not
+ * allow it (see {@link GymTools#MAPPED_FILES_REPLACEABLE}) and the file only grows there.
+ *
+ * @author Marcel Horváth
+ */
+public class MappedGymStore implements GymStore {
+    public static final String DATA_FILE = "gym.db";
+    private static final int MAGIC = 0x47594D44;
+    private static final short VERSION = 2;
+    private static final int HEADER_SIZE = 32;
+    private static final int END_OFFSET = 8;
+    private static final int INITIAL_SIZE = 1 << 20;
+    private static final byte USER = 1;
+    private static final byte SNAPSHOT = 2;
+    private static final byte JOURNAL = 3;
+    private static final byte RECORDS = 4;
+    private static final int CHECKSUM_SIZE = 4;
+    private final Path path;
+    private FileChannel channel;
+    private MappedByteBuffer map;
+    private long end;
+    /** Size of the checksum after every entry, 0 in files of version 1 */
+    private int checksumSize;
+    private long garbage;
+    private final Map<String, Long> users = new HashMap<>();
+    private final Map<String, Long> records = new HashMap<>();
+    private long snapshot = -1;
+    private final List<Long> journal = new ArrayList<>();
+
+    /**
+     * Opens the data file, creates it if it does not exist, and builds the index
+     * @param path path to the data file
+     * @throws IOException
+     */
+    public MappedGymStore(Path path) throws IOException {
+        this.path = path;
+        open();
+    }
+
+    private void open() throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        boolean created = channel.size() == 0;
+        map = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(channel.size(), INITIAL_SIZE));
+        if (created) {
+            map.putInt(0, MAGIC).putShort(4, VERSION).putLong(END_OFFSET, HEADER_SIZE);
+        } else if (map.getInt(0) != MAGIC || map.getShort(4) > VERSION) {
+            throw new GymException("file could not be loaded", 104, "unknown data file " + path);
+        }
+        checksumSize = map.getShort(4) >= 2 ? CHECKSUM_SIZE : 0;
+        end = Math.min(Math.max(map.getLong(END_OFFSET), HEADER_SIZE), map.capacity());
+        users.clear();
+        records.clear();
+        journal.clear();
+        snapshot = -1;
+        garbage = 0;
+        for (long position = HEADER_SIZE; position < end; position = next(position)) {
+            if (!isValid(position)) {
+                end = position;
+                map.putLong(END_OFFSET, end);
+                break;
+            }
+            switch (map.get((int) position)) {
+                case USER:
+                    replace(users, keyAt(position), position);
+                    break;
+                case RECORDS:
+                    replace(records, keyAt(position), position);
+                    break;
+                case SNAPSHOT:
+                    if (snapshot >= 0) {
+                        garbage += next(snapshot) - snapshot;
+                    }
+                    garbage += journalSize();
+                    journal.clear();
+                    snapshot = position;
+                    break;
+                case JOURNAL:
+                    journal.add(position);
+                    break;
+            }
+        }
+    }
+
+    @Override
+    public synchronized User loadUser(String login) {
+        Long position = users.get(login);
+        return position == null ? null : GymCodec.decodeUser(valueAt(position));
+    }
+
+    @Override
+    public synchronized void saveUser(User user) throws IOException {
+        String login = GymStore.login(user);
+        replace(users, login, append(USER, login, GymCodec.encodeUser(user)));
+    }
+
+    @Override
+    public synchronized List<String> listUsers() {
+        return new ArrayList<>(users.keySet());
+    }
+
+    @Override
+    public synchronized HashMap<LocalDate, List<UUID>> loadReservations() {
+        HashMap<LocalDate, List<UUID>> saved = snapshot < 0 ? new HashMap<>() : GymCodec.decodeReservations(valueAt(snapshot));
+        for (long position : journal) {
+            ReservationJournal.apply(saved, valueAt(position));
+        }
+        return saved;
+    }
+
+    @Override
+    public synchronized void loadReservations(ReservationBook book) {
+        if (snapshot >= 0) {
+            book.load(GymCodec.decodeReservationDays(valueAt(snapshot)));
+        }
+        for (long position : journal) {
+            ReservationJournal.apply(book, valueAt(position));
+        }
+    }
+
+    @Override
+    public synchronized void appendReservation(byte op, LocalDate datum, UUID id) throws IOException {
+        ByteBuffer record = ByteBuffer.allocate(ReservationJournal.RECORD_SIZE);
+        ReservationJournal.encode(record, op, datum, id);
+        journal.add(append(JOURNAL, "", record.flip()));
+    }
+
+    @Override
+    public synchronized boolean needsCompaction() {
+        return journal.size() >= ReservationJournal.COMPACT_THRESHOLD;
+    }
+
+    @Override
+    public synchronized void saveReservations(Map<LocalDate, List<UUID>> reservations) throws IOException {
+        long previous = snapshot;
+        long previousSize = previous < 0 ? 0 : next(previous) - previous;
+        long journalSize = journalSize();
+        snapshot = append(SNAPSHOT, "", GymCodec.encodeReservations(reservations));
+        garbage += previousSize + journalSize;
+        journal.clear();
+        if (GymTools.MAPPED_FILES_REPLACEABLE && garbage > INITIAL_SIZE && garbage > end - garbage) {
+            rewrite();
+        }
+    }
+
+    /**
+     * Workout logs are appended in chunks, so they are kept in their own files next to the data file
+     */
+    @Override
+    public WorkoutLog openWorkoutLog(User user) {
+        return new WorkoutLog(path.resolveSibling(WorkoutLog.WORKOUTS_DIR).resolve(user.getId() + WorkoutLog.LOG_SUFFIX));
+    }
+
+    @Override
+    public WritableByteChannel openRecords(User user) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream() {
+            @Override
+            public void close() throws IOException {
+                synchronized (MappedGymStore.this) {
+                    replace(records, user.getName(), append(RECORDS, user.getName(), ByteBuffer.wrap(toByteArray())));
+                }
+            }
+        };
+        return Channels.newChannel(out);
+    }
+
+    /**
+     * Gives last exported records of the user
+     * @param name users name
+     * @return exported text, null if records were not exported
+     */
+    public synchronized String getRecords(String name) {
+        Long position = records.get(name);
+        return position == null ? null : StandardCharsets.UTF_8.decode(valueAt(position)).toString();
+    }
+
+    @Override
+    public synchronized void sync() {
+        map.force();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        map.force();
+        channel.close();
+    }
+
+    /**
+     * Appends entry to the end of the data file
+     * @return position of the entry
+     */
+    private long append(byte type, String key, ByteBuffer value) throws IOException {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        int size = 1 + 2 + keyBytes.length + 4 + value.remaining() + checksumSize;
+        ensure(size);
+        long position = end;
+        ByteBuffer out = map.duplicate();
+        out.position((int) position);
+        out.put(type).putShort((short) keyBytes.length).put(keyBytes).putInt(value.remaining()).put(value);
+        if (checksumSize > 0) {
+            out.putInt(checksum((int) position, size - checksumSize));
+        }
+        end += size;
+        map.putLong(END_OFFSET, end);
+        return position;
+    }
+
+    private void ensure(int size) throws IOException {
+        if (end + size <= map.capacity()) {
+            return;
+        }
+        long capacity = map.capacity();
+        while (capacity < end + size) {
+            capacity *= 2;
+        }
+        if (capacity > Integer.MAX_VALUE) {
+            throw new GymException("Files could not be saved", 105, "data file is too big");
+        }
+        map.force();
+        map = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    }
+
+    /**
+     * Copies live entries to a new data file and replaces the old one with it
+     */
+    private void rewrite() throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + GymTools.TEMP_SUFFIX);
+        Files.deleteIfExists(temp);
+        MappedGymStore copy = new MappedGymStore(temp);
+        for (Map.Entry<String, Long> user : users.entrySet()) {
+            copy.append(USER, user.getKey(), valueAt(user.getValue()));
+        }
+        for (Map.Entry<String, Long> record : records.entrySet()) {
+            copy.append(RECORDS, record.getKey(), valueAt(record.getValue()));
+        }
+        if (snapshot >= 0) {
+            copy.append(SNAPSHOT, "", valueAt(snapshot));
+        }
+        for (long position : journal) {
+            copy.append(JOURNAL, "", valueAt(position));
+        }
+        copy.close();
+        map.force();
+        channel.close();
+        GymTools.replace(temp, path);
+        open();
+    }
+
+    private void replace(Map<String, Long> index, String key, long position) {
+        Long previous = index.put(key, position);
+        if (previous != null) {
+            garbage += next(previous) - previous;
+        }
+    }
+
+    private long journalSize() {
+        return (long) journal.size() * (1 + 2 + 4 + ReservationJournal.RECORD_SIZE + checksumSize);
+    }
+
+    /**
+     * Checks that the entry lies before the end, has known type and its checksum matches
+     */
+    private boolean isValid(long position) {
+        if (position + 1 + 2 + 4 + checksumSize > end) {
+            return false;
+        }
+        byte type = map.get((int) position);
+        int keyLength = map.getShort((int) position + 1);
+        if (type < USER || type > RECORDS || keyLength < 0 || position + 1 + 2 + keyLength + 4 + checksumSize > end) {
+            return false;
+        }
+        int length = map.getInt((int) position + 3 + keyLength);
+        if (length < 0 || next(position) > end) {
+            return false;
+        }
+        int size = (int) (next(position) - position) - checksumSize;
+        return checksumSize == 0 || checksum((int) position, size) == map.getInt((int) position + size);
+    }
+
+    private int checksum(int position, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(map.slice(position, length));
+        return (int) crc.getValue();
+    }
+
+    private String keyAt(long position) {
+        int keyLength = map.getShort((int) position + 1);
+        byte[] key = new byte[keyLength];
+        map.get((int) position + 3, key);
+        return new String(key, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Gives read only view of the entry value, no bytes are copied
+     */
+    private ByteBuffer valueAt(long position) {
+        int valuePosition = (int) position + 3 + map.getShort((int) position + 1);
+        int length = map.getInt(valuePosition);
+        return map.slice(valuePosition + 4, length).asReadOnlyBuffer();
+    }
+
+    private long next(long position) {
+        int valuePosition = (int) position + 3 + map.getShort((int) position + 1);
+        return valuePosition + 4L + map.getInt(valuePosition) + checksumSize;
+    }
+}
@@ -0,0 +1,130 @@
+package horvath.gym;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory index of members by id and by prefix of their login
+ * <p>
+ * Logins are kept in a trie, so members whose login starts with a typed prefix are found
+ * without going over all of them, in alphabetical order. Members of a reserved day are found
+ * by ids from {@link ReservationBook} and this index. The index is built when the gym is opened
+ * by a parallel scan of the storage and new members are added when they register.
+ *
+ * @author Marcel Horváth
+ */
+public class MemberIndex {
+    private final Map<UUID, Member> byId = new ConcurrentHashMap<>();
+    private final Node root = new Node();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Identity of one member, enough to show them and to load their account
+     */
+    public record Member(UUID id, String login, String name, String lastName) {
+        static Member of(User user) {
+            return new Member(user.getId(), GymStore.login(user), user.getName(), user.getLastName());
+        }
+
+        @Override
+        public String toString() {
+            return name + " " + lastName;
+        }
+    }
+
+    private static class Node {
+        private final TreeMap<Character, Node> children = new TreeMap<>();
+        private Member member;
+    }
+
+    /**
+     * Builds the index from all members in the storage, they are read by {@link GymStore#listMembers}
+     * @param store storage of the gym
+     * @return filled index
+     * @throws IOException
+     */
+    public static MemberIndex build(GymStore store) throws IOException {
+        MemberIndex index = new MemberIndex();
+        for (Member member : store.listMembers()) {
+            index.add(member);
+        }
+        return index;
+    }
+
+    /**
+     * Adds new member or replaces the member with the same login
+     * @param member added member
+     */
+    public void add(Member member) {
+        lock.writeLock().lock();
+        try {
+            byId.put(member.id(), member);
+            insert(member);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void insert(Member member) {
+        Node node = root;
+        String login = member.login();
+        for (int i = 0; i < login.length(); i++) {
+            node = node.children.computeIfAbsent(login.charAt(i), c -> new Node());
+        }
+        if (node.member != null && !node.member.id().equals(member.id())) {
+            byId.remove(node.member.id(), node.member);
+        }
+        node.member = member;
+    }
+
+    /**
+     * Finds member by id
+     * @param id users id
+     * @return member, null if there is no such member
+     */
+    public Member get(UUID id) {
+        return byId.get(id);
+    }
+
+    /**
+     * Finds members whose login starts with the prefix, the prefix is normalized like a login
+     * @param prefix start of the name, spaces and case do not matter
+     * @param limit most members returned
+     * @return members in alphabetical order of their logins
+     */
+    public List<Member> search(String prefix, int limit) {
+        String login = GymStore.login(prefix);
+        List<Member> found = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            Node node = root;
+            for (int i = 0; i < login.length() && node != null; i++) {
+                node = node.children.get(login.charAt(i));
+            }
+            if (node != null) {
+                collect(node, found, limit);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return found;
+    }
+
+    private static void collect(Node node, List<Member> found, int limit) {
+        if (found.size() >= limit) {
+            return;
+        }
+        if (node.member != null) {
+            found.add(node.member);
+        }
+        for (Node child : node.children.values()) {
+            collect(child, found, limit);
+        }
+    }
+
+    public int size() {
+        return byId.size();
+    }
+}
@@ -0,0 +1,106 @@
+package horvath.gym;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Storage kept only in memory, used for tests and benchmarks
+ * <p>
+ * Users and the reservation snapshot are kept encoded, so loading returns new objects
+ * like the other storages do.
+ *
+ * @author Marcel Horváth
+ */
+public class MemoryGymStore implements GymStore {
+    private final Map<String, ByteBuffer> users = new ConcurrentHashMap<>();
+    private final Map<String, ByteArrayOutputStream> records = new ConcurrentHashMap<>();
+    private final Map<UUID, WorkoutLog> workoutLogs = new ConcurrentHashMap<>();
+    private ByteBuffer snapshot;
+    private final List<ByteBuffer> journal = new ArrayList<>();
+
+    @Override
+    public User loadUser(String login) {
+        ByteBuffer encoded = users.get(login);
+        return encoded == null ? null : GymCodec.decodeUser(encoded.duplicate());
+    }
+
+    @Override
+    public void saveUser(User user) {
+        users.put(GymStore.login(user), GymCodec.encodeUser(user));
+    }
+
+    @Override
+    public List<String> listUsers() {
+        return new ArrayList<>(users.keySet());
+    }
+
+    @Override
+    public synchronized HashMap<LocalDate, List<UUID>> loadReservations() {
+        HashMap<LocalDate, List<UUID>> saved = snapshot == null ? new HashMap<>() : GymCodec.decodeReservations(snapshot.duplicate());
+        for (ByteBuffer record : journal) {
+            ReservationJournal.apply(saved, record.duplicate());
+        }
+        return saved;
+    }
+
+    @Override
+    public synchronized void loadReservations(ReservationBook book) {
+        if (snapshot != null) {
+            book.load(GymCodec.decodeReservationDays(snapshot.duplicate()));
+        }
+        for (ByteBuffer record : journal) {
+            ReservationJournal.apply(book, record.duplicate());
+        }
+    }
+
+    @Override
+    public synchronized void appendReservation(byte op, LocalDate datum, UUID id) {
+        ByteBuffer record = ByteBuffer.allocate(ReservationJournal.RECORD_SIZE);
+        ReservationJournal.encode(record, op, datum, id);
+        journal.add(record.flip());
+    }
+
+    @Override
+    public synchronized boolean needsCompaction() {
+        return journal.size() >= ReservationJournal.COMPACT_THRESHOLD;
+    }
+
+    @Override
+    public synchronized void saveReservations(Map<LocalDate, List<UUID>> reservations) {
+        snapshot = GymCodec.encodeReservations(reservations);
+        journal.clear();
+    }
+
+    @Override
+    public WritableByteChannel openRecords(User user) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        records.put(user.getName(), out);
+        return Channels.newChannel(out);
+    }
+
+    @Override
+    public WorkoutLog openWorkoutLog(User user) {
+        return workoutLogs.computeIfAbsent(user.getId(), id -> new WorkoutLog(null));
+    }
+
+    /**
+     * Gives last exported records of the user
+     * @param name users name
+     * @return exported text, null if records were not exported
+     */
+    public String getRecords(String name) {
+        ByteArrayOutputStream out = records.get(name);
+        return out == null ? null : out.toString(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,99 @@
+package horvath.gym;
+
+/**
+ * Segment tree with the lowest occupancy of every range of days
+ * <p>
+ * Leaves are days in the same order as in {@link ReservationIndex}, inner nodes keep minimum
+ * of their children. Changing occupancy of one day and finding the next day with occupancy
+ * under a limit both take O(log n). Days after the last leaf are treated as empty.
+ * Methods are synchronized, because days are changed under different day locks.
+ *
+ * @author Marcel Horváth
+ */
+public class OccupancyTree {
+    private final int leaves;
+    private final int[] tree;
+
+    /**
+     * Builds the tree from occupancy of days
+     * @param counts occupancy of every day
+     */
+    public OccupancyTree(int[] counts) {
+        int size = 1;
+        while (size < counts.length) {
+            size <<= 1;
+        }
+        leaves = size;
+        tree = new int[2 * size];
+        System.arraycopy(counts, 0, tree, size, counts.length);
+        for (int node = size - 1; node > 0; node--) {
+            tree[node] = Math.min(tree[2 * node], tree[2 * node + 1]);
+        }
+    }
+
+    /**
+     * Sets occupancy of the day
+     * @param offset index of the day
+     * @param occupancy new occupancy
+     */
+    public synchronized void set(int offset, int occupancy) {
+        int node = leaves + offset;
+        tree[node] = occupancy;
+        for (node >>= 1; node > 0; node >>= 1) {
+            int min = Math.min(tree[2 * node], tree[2 * node + 1]);
+            if (tree[node] == min) {
+                break;
+            }
+            tree[node] = min;
+        }
+    }
+
+    /**
+     * Finds the first day from the offset with occupancy lower than the limit
+     * @param from index of the first checked day
+     * @param limit occupancy which is already full
+     * @return index of the day, it can be after the last leaf if all days in the tree are full
+     */
+    public synchronized int nextBelow(int from, int limit) {
+        if (from >= leaves) {
+            return from;
+        }
+        int node = leaves + Math.max(from, 0);
+        if (tree[node] < limit) {
+            return node - leaves;
+        }
+        // go up until a right sibling has a free day, then down to its first free day
+        while (true) {
+            while ((node & 1) == 1) {
+                node >>= 1;
+                if (node == 0) {
+                    return leaves;
+                }
+            }
+            node++;
+            if (tree[node] < limit) {
+                break;
+            }
+        }
+        while (node < leaves) {
+            node = tree[2 * node] < limit ? 2 * node : 2 * node + 1;
+        }
+        return node - leaves;
+    }
+
+    /**
+     * Copies occupancy of days in the range
+     * @param from index of the first day
+     * @param length number of days
+     * @return occupancy, 0 for days after the last leaf
+     */
+    public synchronized int[] range(int from, int length) {
+        int[] counts = new int[length];
+        int start = Math.max(from, 0);
+        int end = Math.min(from + length, leaves);
+        if (start < end) {
+            System.arraycopy(tree, leaves + start, counts, start - from, end - start);
+        }
+        return counts;
+    }
+}
@@ -0,0 +1,254 @@
+package horvath.gym;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.*;
+
+/**
+ * Background writer of changed users and reservations
+ * <p>
+ * Changes are only queued by the calling thread. The writer thread saves them in batches,
+ * every interval or as soon as the batch size is reached, and syncs the storage once per batch.
+ * Users changed more times before a flush are saved only once. Closing the scheduler saves
+ * everything which is still queued.
+ *
+ * @author Marcel Horváth
+ */
+public class PersistenceScheduler implements Closeable {
+    public static final long DEFAULT_INTERVAL = 200;
+    public static final int DEFAULT_BATCH_SIZE = 1024;
+    private final Gym gym;
+    private final long interval;
+    private final int batchSize;
+    private final Thread writer;
+    private final Object flushLock = new Object();
+    private List<Change> changes = new ArrayList<>();
+    private Map<String, User> users = new LinkedHashMap<>();
+    private Map<String, User> balances = new LinkedHashMap<>();
+    private boolean closed;
+    private GymException failure;
+    private long batches;
+
+    private record Change(byte op, LocalDate datum, UUID id) {
+    }
+
+    /**
+     * Creates scheduler and starts its writer thread
+     * @param gym gym whose storage is written
+     * @param interval longest time in milliseconds between a change and its flush
+     * @param batchSize number of queued changes which starts the flush right away
+     */
+    public PersistenceScheduler(Gym gym, long interval, int batchSize) {
+        if (interval <= 0 || batchSize <= 0) {
+            throw new GymException("Bad input", 103, "interval and batch size have to be positive");
+        }
+        this.gym = gym;
+        this.interval = interval;
+        this.batchSize = batchSize;
+        writer = new Thread(this::run, "gym-persistence-" + gym.getGymName());
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Queues change of reservations
+     * @param op ReservationJournal.BOOKED or ReservationJournal.CANCELLED
+     * @param datum reservation date
+     * @param id users id
+     */
+    public synchronized void reservationChanged(byte op, LocalDate datum, UUID id) {
+        changes.add(new Change(op, datum, id));
+        wakeIfFull();
+    }
+
+    /**
+     * Queues bookings of more days together with the user in one step, so they are written in one batch
+     * @param days booked dates
+     * @param user user who booked them
+     */
+    public synchronized void reservationsBooked(Collection<LocalDate> days, User user) {
+        for (LocalDate datum : days) {
+            changes.add(new Change(ReservationJournal.BOOKED, datum, user.getId()));
+        }
+        userChanged(user);
+    }
+
+    /**
+     * Queues cancellation of the day together with the user in one step, so they are written in one batch
+     * @param datum cancelled date
+     * @param user user who cancelled it
+     */
+    public synchronized void reservationCancelled(LocalDate datum, User user) {
+        changes.add(new Change(ReservationJournal.CANCELLED, datum, user.getId()));
+        userChanged(user);
+    }
+
+    /**
+     * Queues whole user to be saved
+     * @param user changed user
+     */
+    public synchronized void userChanged(User user) {
+        String login = GymStore.login(user);
+        users.put(login, user);
+        balances.remove(login);
+        wakeIfFull();
+    }
+
+    /**
+     * Queues balance of the user to be saved, nothing is queued if the whole user is waiting
+     * @param user user with changed balance
+     */
+    public synchronized void balanceChanged(User user) {
+        String login = GymStore.login(user);
+        if (!users.containsKey(login)) {
+            balances.put(login, user);
+            wakeIfFull();
+        }
+    }
+
+    /**
+     * Checks if the user has changes which were not saved yet
+     * @param login login of the user
+     * @return boolean: is the user queued?
+     */
+    public synchronized boolean isPending(String login) {
+        return users.containsKey(login) || balances.containsKey(login);
+    }
+
+    /**
+     * Forgets queued reservation changes, called when a snapshot with all of them was written
+     */
+    synchronized void reservationsSaved() {
+        changes.clear();
+    }
+
+    /**
+     * Number of written batches
+     * @return number of batches
+     */
+    public synchronized long getBatches() {
+        return batches;
+    }
+
+    /**
+     * Saves all queued changes and syncs the storage
+     * @throws GymException if the changes could not be saved, they stay queued
+     */
+    public void flush() {
+        synchronized (flushLock) {
+            List<Change> changeBatch;
+            Map<String, User> userBatch;
+            Map<String, User> balanceBatch;
+            synchronized (this) {
+                if (changes.isEmpty() && users.isEmpty() && balances.isEmpty()) {
+                    return;
+                }
+                changeBatch = changes;
+                userBatch = users;
+                balanceBatch = balances;
+                changes = new ArrayList<>();
+                users = new LinkedHashMap<>();
+                balances = new LinkedHashMap<>();
+            }
+            GymStore store = gym.getStore();
+            try {
+                for (Change change : changeBatch) {
+                    store.appendReservation(change.op(), change.datum(), change.id());
+                }
+                for (User user : userBatch.values()) {
+                    synchronized (user) {
+                        store.saveUser(user);
+                    }
+                }
+                for (User user : balanceBatch.values()) {
+                    synchronized (user) {
+                        store.saveBalance(user);
+                    }
+                }
+                store.sync();
+            } catch (IOException | GymException e) {
+                requeue(changeBatch, userBatch, balanceBatch);
+                throw new GymException("Files could not be saved", 105, e.getMessage());
+            }
+            gym.written(!userBatch.isEmpty() || !balanceBatch.isEmpty());
+            synchronized (this) {
+                batches++;
+                failure = null;
+            }
+            if (store.needsCompaction()) {
+                gym.saveReservation();
+            }
+        }
+    }
+
+    /**
+     * Stops the writer thread and saves all queued changes
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    private void run() {
+        while (true) {
+            synchronized (this) {
+                if (!closed && size() < batchSize) {
+                    try {
+                        wait(interval);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (closed) {
+                    return;
+                }
+            }
+            try {
+                flush();
+            } catch (GymException e) {
+                synchronized (this) {
+                    failure = e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Gives the error of the last background flush
+     * @return error, null if the last flush succeeded
+     */
+    public synchronized GymException getFailure() {
+        return failure;
+    }
+
+    private synchronized void requeue(List<Change> changeBatch, Map<String, User> userBatch, Map<String, User> balanceBatch) {
+        changeBatch.addAll(changes);
+        changes = changeBatch;
+        userBatch.forEach(users::putIfAbsent);
+        balanceBatch.forEach((login, user) -> {
+            if (!users.containsKey(login)) {
+                balances.putIfAbsent(login, user);
+            }
+        });
+    }
+
+    private int size() {
+        return changes.size() + users.size() + balances.size();
+    }
+
+    private void wakeIfFull() {
+        if (size() >= batchSize) {
+            notifyAll();
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package horvath.gym;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes records of users straight to a channel as text, CSV or JSON Lines
+ * <p>
+ * Weights are written as digits to one buffer, names of exercises are encoded only once,
+ * so no string is built for the records. The buffer is written to the channel whenever it is full.
+ * CSV has row "member,exercise,weight" for every weight, JSON Lines has one object per member.
+ *
+ * @author Marcel Horváth
+ */
+public class RecordExporter implements Closeable {
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final byte[] LINE = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CSV_HEADER = "member,exercise,weight\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] JSON_MEMBER = "{\"member\":".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] JSON_RECORDS = ",\"records\":{".getBytes(StandardCharsets.US_ASCII);
+    private final WritableByteChannel out;
+    private final Format format;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    /** Names of exercises already escaped for the format */
+    private final Map<String, byte[]> names = new HashMap<>();
+    private boolean header;
+
+    /**
+     * Format of the exported records
+     */
+    public enum Format {
+        /** Lines "exercise = weight, weight", the same as shown to the user */
+        TEXT("_record.txt"),
+        CSV(".csv"),
+        JSONL(".jsonl");
+
+        private final String suffix;
+
+        Format(String suffix) {
+            this.suffix = suffix;
+        }
+
+        public String getSuffix() {
+            return suffix;
+        }
+    }
+
+    /**
+     * Creates exporter, the channel is closed by close
+     * @param out output channel
+     * @param format format of the output
+     */
+    public RecordExporter(WritableByteChannel out, Format format) {
+        this.out = out;
+        this.format = format;
+    }
+
+    /**
+     * Writes records of the user in the order chosen by sortRecords
+     * @param user owner of the records
+     * @throws IOException
+     */
+    public void write(User user) throws IOException {
+        switch (format) {
+            case CSV:
+                writeCsv(user);
+                break;
+            case JSONL:
+                writeJson(user);
+                break;
+            default:
+                writeText(user);
+        }
+    }
+
+    private void writeText(User user) throws IOException {
+        int order = user.getRecordOrder();
+        for (ExerciseRecords.Lifts lifts : user.getExerciseRecords().inOrder(order)) {
+            put(name(lifts.getName()));
+            put((byte) ' ');
+            put((byte) '=');
+            put((byte) ' ');
+            for (int i = 0; i < lifts.size(); i++) {
+                if (i > 0) {
+                    put((byte) ',');
+                    put((byte) ' ');
+                }
+                put(weight(lifts, order, i));
+            }
+            put(LINE);
+        }
+        put(LINE);
+    }
+
+    private void writeCsv(User user) throws IOException {
+        if (!header) {
+            put(CSV_HEADER);
+            header = true;
+        }
+        byte[] member = escape(GymStore.login(user));
+        int order = user.getRecordOrder();
+        for (ExerciseRecords.Lifts lifts : user.getExerciseRecords().inOrder(order)) {
+            byte[] name = name(lifts.getName());
+            for (int i = 0; i < lifts.size(); i++) {
+                put(member);
+                put((byte) ',');
+                put(name);
+                put((byte) ',');
+                put(weight(lifts, order, i));
+                put((byte) '\n');
+            }
+        }
+    }
+
+    private void writeJson(User user) throws IOException {
+        put(JSON_MEMBER);
+        put(escape(GymStore.login(user)));
+        put(JSON_RECORDS);
+        int order = user.getRecordOrder();
+        boolean first = true;
+        for (ExerciseRecords.Lifts lifts : user.getExerciseRecords().inOrder(order)) {
+            if (!first) {
+                put((byte) ',');
+            }
+            first = false;
+            put(name(lifts.getName()));
+            put((byte) ':');
+            put((byte) '[');
+            for (int i = 0; i < lifts.size(); i++) {
+                if (i > 0) {
+                    put((byte) ',');
+                }
+                put(weight(lifts, order, i));
+            }
+            put((byte) ']');
+        }
+        put((byte) '}');
+        put((byte) '}');
+        put((byte) '\n');
+    }
+
+    private static int weight(ExerciseRecords.Lifts lifts, int order, int i) {
+        return lifts.get(order == ExerciseRecords.REVERSE_ORDER ? lifts.size() - 1 - i : i);
+    }
+
+    private byte[] name(String exercise) {
+        return names.computeIfAbsent(exercise, this::escape);
+    }
+
+    /**
+     * Encodes the text for the format, CSV values with comma or quote are quoted, JSON strings are escaped
+     */
+    private byte[] escape(String text) {
+        switch (format) {
+            case CSV:
+                if (text.indexOf(',') >= 0 || text.indexOf('"') >= 0 || text.indexOf('\n') >= 0) {
+                    text = '"' + text.replace("\"", "\"\"") + '"';
+                }
+                break;
+            case JSONL:
+                StringBuilder json = new StringBuilder(text.length() + 2).append('"');
+                for (int i = 0; i < text.length(); i++) {
+                    char c = text.charAt(i);
+                    if (c == '"' || c == '\\') {
+                        json.append('\\').append(c);
+                    } else if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+                }
+                text = json.append('"').toString();
+                break;
+            default:
+        }
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private void put(byte b) throws IOException {
+        if (!buffer.hasRemaining()) {
+            drain();
+        }
+        buffer.put(b);
+    }
+
+    private void put(byte[] bytes) throws IOException {
+        if (buffer.remaining() < bytes.length) {
+            drain();
+            if (bytes.length > buffer.capacity()) {
+                ByteBuffer large = ByteBuffer.wrap(bytes);
+                while (large.hasRemaining()) {
+                    out.write(large);
+                }
+                return;
+            }
+        }
+        buffer.put(bytes);
+    }
+
+    /**
+     * Writes the number as decimal digits without creating a string
+     */
+    private void put(int value) throws IOException {
+        if (buffer.remaining() < 11) {
+            drain();
+        }
+        long number = value;
+        if (number < 0) {
+            buffer.put((byte) '-');
+            number = -number;
+        }
+        int start = buffer.position();
+        do {
+            buffer.put((byte) ('0' + number % 10));
+            number /= 10;
+        } while (number > 0);
+        for (int i = start, j = buffer.position() - 1; i < j; i++, j--) {
+            byte digit = buffer.get(i);
+            buffer.put(i, buffer.get(j));
+            buffer.put(j, digit);
+        }
+    }
+
+    private void drain() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Writes buffered records to the channel
+     * @throws IOException
+     */
+    public void flush() throws IOException {
+        drain();
+    }
+
+    /**
+     * Writes buffered records and closes the channel
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            out.close();
+        }
+    }
+}
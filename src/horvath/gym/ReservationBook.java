@@ -0,0 +1,535 @@
+package horvath.gym;
+
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Thread-safe reservations of all days, never lets more than maxPeople users reserve one day
+ * <p>
+ * Data are kept in {@link ReservationIndex}. Days are guarded by striped locks, so bookings
+ * of different days do not wait for each other and check of the capacity together with adding
+ * the user is one atomic step. Growing the index (new user, day out of range) takes the
+ * structure lock exclusively, so does decoding of a day loaded from the snapshot when it is used
+ * for the first time.
+ * Full days can have a FIFO waitlist, it is guarded by the lock of its day. While somebody waits
+ * for the day, the freed place is kept for them and other users can not book it directly.
+ *
+ * @author Marcel Horváth
+ */
+public class ReservationBook {
+    public static final int RESERVED = 0;
+    public static final int ALREADY_RESERVED = 2;
+    public static final int FULL = 3;
+    public static final int WAITLISTED = 4;
+    public static final int ALREADY_WAITING = 5;
+    private static final int STRIPES = 64;
+    private final int maxPeople;
+    private final ReservationIndex index;
+    private final ReentrantReadWriteLock structure = new ReentrantReadWriteLock();
+    private final Object[] locks = new Object[STRIPES];
+    private final Map<Long, ArrayDeque<Waiting>> waitlists = new ConcurrentHashMap<>();
+
+    /**
+     * User waiting for a full day, the fee is charged when they get the place
+     */
+    public record Waiting(UUID id, String login, float fee) {
+    }
+
+    /**
+     * Result of booking more days at once
+     * @param result RESERVED if all days were booked, otherwise the reason why none was booked
+     * @param day the day which could not be booked, null if the reason is not one day
+     */
+    public record BatchResult(int result, LocalDate day) {
+    }
+
+    public ReservationBook(int maxPeople) {
+        this.maxPeople = maxPeople;
+        this.index = new ReservationIndex(maxPeople);
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    public int getMaxPeople() {
+        return maxPeople;
+    }
+
+    /**
+     * Reserves the day for the user if there is free place
+     * @param datum reservation date
+     * @param id users id
+     * @return RESERVED, ALREADY_RESERVED or FULL
+     */
+    public int book(LocalDate datum, UUID id) {
+        long epochDay = datum.toEpochDay();
+        int member = prepare(epochDay, id);
+        structure.readLock().lock();
+        try {
+            synchronized (lockFor(epochDay)) {
+                if (index.isBooked(epochDay, member)) {
+                    return ALREADY_RESERVED;
+                }
+                if (index.occupancy(epochDay) >= maxPeople || waitlists.containsKey(epochDay)) {
+                    return FULL;
+                }
+                index.add(epochDay, member);
+                return RESERVED;
+            }
+        } finally {
+            structure.readLock().unlock();
+        }
+    }
+
+    /**
+     * Reserves all days for the user or none of them
+     * <p>
+     * Locks of all the days are taken in ascending order, so two batches can not wait for each other,
+     * then all days are checked and only after that they are booked.
+     * @param days reservation dates
+     * @param id users id
+     * @return RESERVED or ALREADY_RESERVED or FULL with the first day which failed
+     */
+    public BatchResult bookAll(Collection<LocalDate> days, UUID id) {
+        long[] epochDays = days.stream().mapToLong(LocalDate::toEpochDay).sorted().distinct().toArray();
+        if (epochDays.length == 0) {
+            return new BatchResult(RESERVED, null);
+        }
+        prepare(epochDays[0], id);
+        int member = prepare(epochDays[epochDays.length - 1], id);
+        for (long epochDay : epochDays) {
+            materialize(epochDay);
+        }
+        int[] stripes = Arrays.stream(epochDays).mapToInt(ReservationBook::stripe).sorted().distinct().toArray();
+        structure.readLock().lock();
+        try {
+            return bookLocked(epochDays, member, stripes, 0);
+        } finally {
+            structure.readLock().unlock();
+        }
+    }
+
+    private BatchResult bookLocked(long[] epochDays, int member, int[] stripes, int next) {
+        if (next < stripes.length) {
+            synchronized (locks[stripes[next]]) {
+                return bookLocked(epochDays, member, stripes, next + 1);
+            }
+        }
+        for (long epochDay : epochDays) {
+            if (index.isBooked(epochDay, member)) {
+                return new BatchResult(ALREADY_RESERVED, LocalDate.ofEpochDay(epochDay));
+            }
+            if (index.occupancy(epochDay) >= maxPeople || waitlists.containsKey(epochDay)) {
+                return new BatchResult(FULL, LocalDate.ofEpochDay(epochDay));
+            }
+        }
+        for (long epochDay : epochDays) {
+            index.add(epochDay, member);
+        }
+        return new BatchResult(RESERVED, null);
+    }
+
+    /**
+     * Reserves the day if there is free place, otherwise puts the user at the end of its waitlist
+     * @param datum reservation date
+     * @param waiting the user with the fee they will pay
+     * @return RESERVED, ALREADY_RESERVED, WAITLISTED or ALREADY_WAITING
+     */
+    public int bookOrWait(LocalDate datum, Waiting waiting) {
+        long epochDay = datum.toEpochDay();
+        int member = prepare(epochDay, waiting.id());
+        structure.readLock().lock();
+        try {
+            synchronized (lockFor(epochDay)) {
+                if (index.isBooked(epochDay, member)) {
+                    return ALREADY_RESERVED;
+                }
+                ArrayDeque<Waiting> waitlist = waitlists.get(epochDay);
+                if (waitlist == null) {
+                    if (index.occupancy(epochDay) < maxPeople) {
+                        index.add(epochDay, member);
+                        return RESERVED;
+                    }
+                    waitlist = new ArrayDeque<>();
+                    waitlists.put(epochDay, waitlist);
+                } else {
+                    for (Waiting other : waitlist) {
+                        if (other.id().equals(waiting.id())) {
+                            return ALREADY_WAITING;
+                        }
+                    }
+                }
+                waitlist.add(waiting);
+                return WAITLISTED;
+            }
+        } finally {
+            structure.readLock().unlock();
+        }
+    }
+
+    /**
+     * Gives the first waiting user, if the day has a free place for them
+     * @param datum reservation date
+     * @return first waiting user, null if the day is full or nobody waits
+     */
+    public Waiting nextToPromote(LocalDate datum) {
+        long epochDay = datum.toEpochDay();
+        structure.readLock().lock();
+        try {
+            synchronized (lockFor(epochDay)) {
+                ArrayDeque<Waiting> waitlist = waitlists.get(epochDay);
+                return waitlist == null || index.occupancy(epochDay) >= maxPeople ? null : waitlist.peek();
+            }
+        } finally {
+            structure.readLock().unlock();
+        }
+    }
+
+    /**
+     * Moves the user from the head of the waitlist to the reserved users in one step
+     * @param datum reservation date
+     * @param waiting user returned by nextToPromote
+     * @return boolean: was the user reserved? false if the waitlist or the day changed meanwhile
+     */
+    public boolean promote(LocalDate datum, Waiting waiting) {
+        long epochDay = datum.toEpochDay();
+        structure.readLock().lock();
+        try {
+            synchronized (lockFor(epochDay)) {
+                ArrayDeque<Waiting> waitlist = waitlists.get(epochDay);
+                if (waitlist == null || waitlist.peek() != waiting || index.occupancy(epochDay) >= maxPeople) {
+                    return false;
+                }
+                waitlist.poll();
+                if (waitlist.isEmpty()) {
+                    waitlists.remove(epochDay);
+                }
+                return index.add(epochDay, index.memberOf(waiting.id()));
+            }
+        } finally {
+            structure.readLock().unlock();
+        }
+    }
+
+    /**
+     * Removes the user from the waitlist of the day
+     * @param datum reservation date
+     * @param id users id
+     * @return boolean: was the user waiting?
+     */
+    public boolean leaveWaitlist(LocalDate datum, UUID id) {
+        long epochDay = datum.toEpochDay();
+        structure.readLock().lock();
+        try {
+            synchronized (lockFor(epochDay)) {
+                ArrayDeque<Waiting> waitlist = waitlists.get(epochDay);
+                if (waitlist == null || !waitlist.removeIf(waiting -> waiting.id().equals(id))) {
+                    return false;
+                }
+                if (waitlist.isEmpty()) {
+                    waitlists.remove(epochDay);
+                }
+                return true;
+            }
+        } finally {
+            structure.readLock().unlock();
+        }
+    }
+
+    /**
+     * Gives number of users waiting for the day
+     * @param datum reservation date
+     * @return length of the waitlist
+     */
+    public int getWaiting(LocalDate datum) {
+        long epochDay = datum.toEpochDay();
+        synchronized (lockFor(epochDay)) {
+            ArrayDeque<Waiting> waitlist = waitlists.get(epochDay);
+            return waitlist == null ? 0 : waitlist.size();
+        }
+    }
+
+    /**
+     * Removes users reservation of the day
+     * @param datum reservation date
+     * @param id users id
+     * @return boolean: was the user reserved?
+     */
+    public boolean cancel(LocalDate datum, UUID id) {
+        long epochDay = datum.toEpochDay();
+        materialize(epochDay);
+        structure.readLock().lock();
+        try {
+            synchronized (lockFor(epochDay)) {
+                return index.remove(epochDay, index.memberOf(id));
+            }
+        } finally {
+            structure.readLock().unlock();
+        }
+    }
+
+    /**
+     * Gives number of users reserved for the day
+     * @param datum reservation date
+     * @return number of reserved users
+     */
+    public int getOccupancy(LocalDate datum) {
+        long epochDay = datum.toEpochDay();
+        structure.readLock().lock();
+        try {
+            synchronized (lockFor(epochDay)) {
+                return index.occupancy(epochDay);
+            }
+        } finally {
+            structure.readLock().unlock();
+        }
+    }
+
+    /**
+     * Finds the first days with at least one free place
+     * @param from first checked day
+     * @param count number of wanted days
+     * @return free days in ascending order
+     */
+    public List<LocalDate> getFreeDays(LocalDate from, int count) {
+        List<LocalDate> free = new ArrayList<>(count);
+        structure.readLock().lock();
+        try {
+            long epochDay = from.toEpochDay();
+            while (free.size() < count) {
+                epochDay = index.nextFree(epochDay, maxPeople);
+                free.add(LocalDate.ofEpochDay(epochDay));
+                epochDay++;
+            }
+        } finally {
+            structure.readLock().unlock();
+        }
+        return free;
+    }
+
+    /**
+     * Gives number of free places of days in the range
+     * @param from first day
+     * @param days number of days
+     * @return free places of every day, 0 for full days
+     */
+    public int[] getFreePlaces(LocalDate from, int days) {
+        int[] occupancy;
+        structure.readLock().lock();
+        try {
+            occupancy = index.occupancies(from.toEpochDay(), days);
+        } finally {
+            structure.readLock().unlock();
+        }
+        int[] free = new int[days];
+        for (int i = 0; i < days; i++) {
+            free[i] = Math.max(maxPeople - occupancy[i], 0);
+        }
+        return free;
+    }
+
+    public boolean isReserved(LocalDate datum, UUID id) {
+        long epochDay = datum.toEpochDay();
+        materialize(epochDay);
+        structure.readLock().lock();
+        try {
+            return index.isBooked(epochDay, index.memberOf(id));
+        } finally {
+            structure.readLock().unlock();
+        }
+    }
+
+    /**
+     * Gives all reserved days of the user
+     * @param id users id
+     * @return reserved days in ascending order
+     */
+    public List<LocalDate> getReservationsOf(UUID id) {
+        int[] days;
+        materializeAll();
+        structure.readLock().lock();
+        try {
+            days = index.bookingsOf(index.memberOf(id));
+        } finally {
+            structure.readLock().unlock();
+        }
+        List<LocalDate> result = new ArrayList<>(days.length);
+        for (int epochDay : days) {
+            result.add(LocalDate.ofEpochDay(epochDay));
+        }
+        return result;
+    }
+
+    /**
+     * Gives ids of users who reserved the day
+     * @param datum reservation date
+     * @return ids in the order of their places
+     */
+    public List<UUID> getMembersOn(LocalDate datum) {
+        long epochDay = datum.toEpochDay();
+        List<UUID> ids = new ArrayList<>();
+        materialize(epochDay);
+        structure.readLock().lock();
+        try {
+            synchronized (lockFor(epochDay)) {
+                index.forEachMember(epochDay, member -> ids.add(index.idOf(member)));
+            }
+        } finally {
+            structure.readLock().unlock();
+        }
+        return ids;
+    }
+
+    /**
+     * Copies all reservations, used for saving the snapshot
+     * @return copy of reservations
+     */
+    public HashMap<LocalDate, List<UUID>> snapshot() {
+        HashMap<LocalDate, List<UUID>> copy = new HashMap<>();
+        materializeAll();
+        structure.readLock().lock();
+        try {
+            for (long epochDay = index.firstDay(); epochDay <= index.lastDay(); epochDay++) {
+                synchronized (lockFor(epochDay)) {
+                    int count = index.occupancy(epochDay);
+                    if (count == 0) {
+                        continue;
+                    }
+                    List<UUID> ids = new ArrayList<>(count);
+                    index.forEachMember(epochDay, member -> ids.add(index.idOf(member)));
+                    copy.put(LocalDate.ofEpochDay(epochDay), ids);
+                }
+            }
+        } finally {
+            structure.readLock().unlock();
+        }
+        return copy;
+    }
+
+    /**
+     * Adds already saved reservations, days over the capacity are kept as they are
+     * @param reservations loaded reservations
+     */
+    public void load(Map<LocalDate, List<UUID>> reservations) {
+        structure.writeLock().lock();
+        try {
+            for (Map.Entry<LocalDate, List<UUID>> day : reservations.entrySet()) {
+                long epochDay = day.getKey().toEpochDay();
+                index.cover(epochDay);
+                index.materialize(epochDay);
+                for (UUID id : day.getValue()) {
+                    index.add(epochDay, index.register(id));
+                }
+            }
+        } finally {
+            structure.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Takes occupancy of days from the snapshot, users of a day are decoded when the day is used
+     * @param snapshot loaded snapshot
+     */
+    public void load(ReservationSnapshot snapshot) {
+        structure.writeLock().lock();
+        try {
+            index.load(snapshot);
+        } finally {
+            structure.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Applies one saved change on top of the snapshot, capacity is not checked like in load
+     * @param op ReservationJournal.BOOKED or ReservationJournal.CANCELLED
+     * @param datum reservation date
+     * @param id users id
+     */
+    public void replay(byte op, LocalDate datum, UUID id) {
+        long epochDay = datum.toEpochDay();
+        structure.writeLock().lock();
+        try {
+            if (op == ReservationJournal.BOOKED) {
+                index.cover(epochDay);
+                index.materialize(epochDay);
+                index.add(epochDay, index.register(id));
+            } else if (op == ReservationJournal.CANCELLED) {
+                index.materialize(epochDay);
+                index.remove(epochDay, index.memberOf(id));
+            }
+        } finally {
+            structure.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Makes sure the user has member number and the day fits into the index and is decoded
+     * @return member number of the user
+     */
+    private int prepare(long epochDay, UUID id) {
+        structure.readLock().lock();
+        try {
+            int member = index.memberOf(id);
+            if (member >= 0 && index.covers(epochDay) && !index.isPending(epochDay)) {
+                return member;
+            }
+        } finally {
+            structure.readLock().unlock();
+        }
+        structure.writeLock().lock();
+        try {
+            index.cover(epochDay);
+            index.materialize(epochDay);
+            return index.register(id);
+        } finally {
+            structure.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Decodes the day from the snapshot if it was not used yet
+     */
+    private void materialize(long epochDay) {
+        structure.readLock().lock();
+        try {
+            if (!index.isPending(epochDay)) {
+                return;
+            }
+        } finally {
+            structure.readLock().unlock();
+        }
+        structure.writeLock().lock();
+        try {
+            index.materialize(epochDay);
+        } finally {
+            structure.writeLock().unlock();
+        }
+    }
+
+    private void materializeAll() {
+        structure.readLock().lock();
+        try {
+            if (!index.hasPending()) {
+                return;
+            }
+        } finally {
+            structure.readLock().unlock();
+        }
+        structure.writeLock().lock();
+        try {
+            index.materializeAll();
+        } finally {
+            structure.writeLock().unlock();
+        }
+    }
+
+    private Object lockFor(long epochDay) {
+        return locks[stripe(epochDay)];
+    }
+
+    private static int stripe(long epochDay) {
+        return (int) (epochDay ^ (epochDay >>> 32)) & (STRIPES - 1);
+    }
+}
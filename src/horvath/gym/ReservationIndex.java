@@ -0,0 +1,490 @@
+package horvath.gym;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.UUID;
+import java.util.function.IntConsumer;
+
+/**
+ * Reservations stored in primitive arrays, days are addressed by epoch day
+ * <p>
+ * Users get a compact member number, every day keeps numbers of its reserved members
+ * in a small open-addressing hash set and every member keeps bitmap of their reserved days.
+ * Adding, removing and checking a reservation do not depend on the number of users reserved
+ * for the day or on the length of users history. Queries do not box anything.
+ * Occupancy of days is also kept in {@link OccupancyTree}, so free days are found without probing day by day.
+ * Days loaded from {@link ReservationSnapshot} keep only their occupancy, their members are
+ * decoded by materialize when the day is used for the first time.
+ * The class is not thread-safe, {@link ReservationBook} takes care of locking.
+ *
+ * @author Marcel Horváth
+ */
+public class ReservationIndex {
+    public static final int MAX_SPAN_DAYS = 200 * 366;
+    private static final int MARGIN_DAYS = 366;
+    private final int slotsPerDay;
+    private int baseDay;
+    private int[] counts = new int[0];
+    private OccupancyTree occupancyTree = new OccupancyTree(counts);
+    private int[][] slots = new int[0][];
+    /** Order of the day in the snapshot + 1 while its members are not decoded, 0 otherwise */
+    private int[] pending = new int[0];
+    private int pendingDays;
+    private ReservationSnapshot source;
+    private long[] mostBits = new long[16];
+    private long[] leastBits = new long[16];
+    private BitSet[] memberDays = new BitSet[16];
+    private int memberCount;
+    private int[] table = new int[32];
+
+    /**
+     * Creates empty index
+     * @param slotsPerDay expected number of members per day
+     */
+    public ReservationIndex(int slotsPerDay) {
+        this.slotsPerDay = Math.max(slotsPerDay, 1);
+    }
+
+    public int getMemberCount() {
+        return memberCount;
+    }
+
+    /**
+     * Finds member number of the user
+     * @param id users id
+     * @return member number, -1 if the user has no number yet
+     */
+    public int memberOf(UUID id) {
+        return memberOf(id.getMostSignificantBits(), id.getLeastSignificantBits());
+    }
+
+    private int memberOf(long most, long least) {
+        int mask = table.length - 1;
+        for (int i = hash(most, least) & mask; table[i] != 0; i = (i + 1) & mask) {
+            int member = table[i] - 1;
+            if (mostBits[member] == most && leastBits[member] == least) {
+                return member;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Gives the user a member number, if they do not have one
+     * @param id users id
+     * @return member number
+     */
+    public int register(UUID id) {
+        return register(id.getMostSignificantBits(), id.getLeastSignificantBits());
+    }
+
+    private int register(long most, long least) {
+        int member = memberOf(most, least);
+        if (member >= 0) {
+            return member;
+        }
+        if (memberCount == mostBits.length) {
+            int capacity = memberCount * 2;
+            mostBits = Arrays.copyOf(mostBits, capacity);
+            leastBits = Arrays.copyOf(leastBits, capacity);
+            memberDays = Arrays.copyOf(memberDays, capacity);
+        }
+        member = memberCount++;
+        mostBits[member] = most;
+        leastBits[member] = least;
+        memberDays[member] = new BitSet();
+        if (memberCount * 2 > table.length) {
+            rehash(table.length * 2);
+        } else {
+            insert(member);
+        }
+        return member;
+    }
+
+    public UUID idOf(int member) {
+        return new UUID(mostBits[member], leastBits[member]);
+    }
+
+    /**
+     * Checks if the day fits into the arrays
+     * @param epochDay day
+     * @return boolean: can the day be used without growing?
+     */
+    public boolean covers(long epochDay) {
+        return counts.length > 0 && epochDay >= baseDay && epochDay < (long) baseDay + counts.length;
+    }
+
+    /**
+     * Grows the arrays so they contain the day, leaves some space around it
+     * @param epochDay day
+     * @throws GymException if the index would span more than MAX_SPAN_DAYS
+     */
+    public void cover(long epochDay) {
+        if (covers(epochDay)) {
+            return;
+        }
+        if (Math.abs(epochDay) > Integer.MAX_VALUE / 2
+                || counts.length > 0 && Math.max(epochDay, lastDay()) - Math.min(epochDay, baseDay) > MAX_SPAN_DAYS) {
+            throw new GymException("Bad input", 103, "date is too far from other reservations");
+        }
+        if (counts.length == 0) {
+            baseDay = (int) epochDay - MARGIN_DAYS;
+            counts = new int[2 * MARGIN_DAYS];
+            slots = new int[2 * MARGIN_DAYS][];
+            pending = new int[2 * MARGIN_DAYS];
+            occupancyTree = new OccupancyTree(counts);
+            return;
+        }
+        if (epochDay < baseDay) {
+            int shift = (int) (baseDay - epochDay) + MARGIN_DAYS;
+            counts = shiftRight(counts, shift);
+            int[][] shifted = new int[slots.length + shift][];
+            System.arraycopy(slots, 0, shifted, shift, slots.length);
+            slots = shifted;
+            pending = shiftRight(pending, shift);
+            for (int member = 0; member < memberCount; member++) {
+                BitSet days = memberDays[member];
+                BitSet moved = new BitSet(days.length() + shift);
+                for (int i = days.nextSetBit(0); i >= 0; i = days.nextSetBit(i + 1)) {
+                    moved.set(i + shift);
+                }
+                memberDays[member] = moved;
+            }
+            baseDay -= shift;
+        } else {
+            int length = Math.max(counts.length * 2, (int) (epochDay - baseDay) + MARGIN_DAYS);
+            counts = Arrays.copyOf(counts, length);
+            slots = Arrays.copyOf(slots, length);
+            pending = Arrays.copyOf(pending, length);
+        }
+        occupancyTree = new OccupancyTree(counts);
+    }
+
+    /**
+     * Takes occupancy of all days from the snapshot, members of the days are decoded later by materialize
+     * Days which already have members are decoded right away
+     * @param snapshot loaded snapshot, its buffer is kept until all its days are decoded
+     */
+    public void load(ReservationSnapshot snapshot) {
+        if (snapshot.getDayCount() == 0) {
+            return;
+        }
+        int first = Integer.MAX_VALUE;
+        int last = Integer.MIN_VALUE;
+        for (int day = 0; day < snapshot.getDayCount(); day++) {
+            first = Math.min(first, snapshot.getEpochDay(day));
+            last = Math.max(last, snapshot.getEpochDay(day));
+        }
+        cover(first);
+        cover(last);
+        source = snapshot;
+        for (int day = 0; day < snapshot.getDayCount(); day++) {
+            int offset = snapshot.getEpochDay(day) - baseDay;
+            if (counts[offset] > 0 || pending[offset] != 0) {
+                materialize(baseDay + offset);
+                decode(snapshot, day);
+            } else if (snapshot.getCount(day) > 0) {
+                counts[offset] = snapshot.getCount(day);
+                pending[offset] = day + 1;
+                pendingDays++;
+            }
+        }
+        occupancyTree = new OccupancyTree(counts);
+        if (pendingDays == 0) {
+            source = null;
+        }
+    }
+
+    /**
+     * Checks if members of the day still have to be decoded from the snapshot
+     * @param epochDay day
+     * @return boolean: has materialize to be called before the day is used?
+     */
+    public boolean isPending(long epochDay) {
+        return covers(epochDay) && pending[(int) (epochDay - baseDay)] != 0;
+    }
+
+    public boolean hasPending() {
+        return pendingDays > 0;
+    }
+
+    /**
+     * Decodes members of the day from the snapshot, new members get their numbers
+     * @param epochDay day
+     */
+    public void materialize(long epochDay) {
+        if (!isPending(epochDay)) {
+            return;
+        }
+        int offset = (int) (epochDay - baseDay);
+        int day = pending[offset] - 1;
+        pending[offset] = 0;
+        counts[offset] = 0;
+        occupancyTree.set(offset, 0);
+        decode(source, day);
+        if (--pendingDays == 0) {
+            source = null;
+        }
+    }
+
+    /**
+     * Decodes all days which were not used yet, needed before members are queried across days
+     */
+    public void materializeAll() {
+        for (int offset = 0; offset < pending.length && pendingDays > 0; offset++) {
+            if (pending[offset] != 0) {
+                materialize(baseDay + offset);
+            }
+        }
+    }
+
+    /**
+     * Adds members of one snapshot day, the same member twice is added once
+     */
+    private void decode(ReservationSnapshot snapshot, int day) {
+        long epochDay = snapshot.getEpochDay(day);
+        for (int place = 0; place < snapshot.getCount(day); place++) {
+            add(epochDay, register(snapshot.getMostBits(day, place), snapshot.getLeastBits(day, place)));
+        }
+    }
+
+    /**
+     * Gives number of members reserved for the day
+     * @param epochDay day
+     * @return number of reserved members
+     */
+    public int occupancy(long epochDay) {
+        return covers(epochDay) ? counts[(int) (epochDay - baseDay)] : 0;
+    }
+
+    /**
+     * Finds the first day from the given one with occupancy lower than the limit
+     * @param epochDay first checked day
+     * @param limit occupancy of a full day
+     * @return epoch day of the free day
+     */
+    public long nextFree(long epochDay, int limit) {
+        if (!covers(epochDay)) {
+            return epochDay;
+        }
+        return baseDay + occupancyTree.nextBelow((int) (epochDay - baseDay), limit);
+    }
+
+    /**
+     * Gives occupancy of days in the range
+     * @param epochDay first day
+     * @param length number of days
+     * @return occupancy of every day, 0 for days which are not covered
+     */
+    public int[] occupancies(long epochDay, int length) {
+        if (counts.length == 0 || epochDay > lastDay() || epochDay + length <= baseDay) {
+            return new int[length];
+        }
+        return occupancyTree.range((int) (epochDay - baseDay), length);
+    }
+
+    /**
+     * Checks if the member is reserved for the day
+     * @param epochDay day
+     * @param member member number
+     * @return boolean: is the member reserved?
+     */
+    public boolean isBooked(long epochDay, int member) {
+        if (member < 0 || !covers(epochDay)) {
+            return false;
+        }
+        BitSet days = memberDays[member];
+        synchronized (days) {
+            return days.get((int) (epochDay - baseDay));
+        }
+    }
+
+    /**
+     * Adds the member to the day, the day has to be covered and not pending
+     * @param epochDay day
+     * @param member member number
+     * @return boolean: was the member added? false if they were already reserved
+     */
+    public boolean add(long epochDay, int member) {
+        int offset = (int) (epochDay - baseDay);
+        BitSet days = memberDays[member];
+        synchronized (days) {
+            if (days.get(offset)) {
+                return false;
+            }
+            days.set(offset);
+        }
+        int[] day = slots[offset];
+        if (day == null) {
+            day = slots[offset] = new int[tableSize(slotsPerDay)];
+        } else if ((counts[offset] + 1) * 2 > day.length) {
+            day = slots[offset] = grow(day);
+        }
+        insertSlot(day, member);
+        counts[offset]++;
+        occupancyTree.set(offset, counts[offset]);
+        return true;
+    }
+
+    /**
+     * Removes the member from the day
+     * @param epochDay day
+     * @param member member number
+     * @return boolean: was the member reserved?
+     */
+    public boolean remove(long epochDay, int member) {
+        if (member < 0 || !covers(epochDay)) {
+            return false;
+        }
+        int offset = (int) (epochDay - baseDay);
+        BitSet days = memberDays[member];
+        synchronized (days) {
+            if (!days.get(offset)) {
+                return false;
+            }
+            days.clear(offset);
+        }
+        if (removeSlot(slots[offset], member)) {
+            counts[offset]--;
+            occupancyTree.set(offset, counts[offset]);
+        }
+        return true;
+    }
+
+    /**
+     * Gives all reserved days of the member in ascending order
+     * @param member member number
+     * @return epoch days
+     */
+    public int[] bookingsOf(int member) {
+        if (member < 0) {
+            return new int[0];
+        }
+        BitSet days = memberDays[member];
+        synchronized (days) {
+            int[] result = new int[days.cardinality()];
+            int n = 0;
+            for (int i = days.nextSetBit(0); i >= 0; i = days.nextSetBit(i + 1)) {
+                result[n++] = baseDay + i;
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Passes every member reserved for the day to the consumer
+     * @param epochDay day
+     * @param consumer gets member numbers
+     */
+    public void forEachMember(long epochDay, IntConsumer consumer) {
+        int[] day = covers(epochDay) ? slots[(int) (epochDay - baseDay)] : null;
+        if (day == null) {
+            return;
+        }
+        for (int slot : day) {
+            if (slot != 0) {
+                consumer.accept(slot - 1);
+            }
+        }
+    }
+
+    /**
+     * Gives first and last covered day, used for iterating over all days
+     * @return first covered epoch day
+     */
+    public int firstDay() {
+        return baseDay;
+    }
+
+    public int lastDay() {
+        return baseDay + counts.length - 1;
+    }
+
+    private static int tableSize(int expected) {
+        int size = 4;
+        while (size < expected * 2) {
+            size <<= 1;
+        }
+        return size;
+    }
+
+    private static int[] grow(int[] day) {
+        int[] bigger = new int[day.length * 2];
+        for (int slot : day) {
+            if (slot != 0) {
+                insertSlot(bigger, slot - 1);
+            }
+        }
+        return bigger;
+    }
+
+    /**
+     * Stores member + 1 into the day table, 0 marks empty slot
+     */
+    private static void insertSlot(int[] day, int member) {
+        int mask = day.length - 1;
+        int i = mix(member) & mask;
+        while (day[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        day[i] = member + 1;
+    }
+
+    /**
+     * Removes member from the day table, following slots are shifted back so no tombstones are needed
+     */
+    private static boolean removeSlot(int[] day, int member) {
+        int mask = day.length - 1;
+        int i = mix(member) & mask;
+        while (day[i] != member + 1) {
+            if (day[i] == 0) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        int gap = i;
+        for (int j = (gap + 1) & mask; day[j] != 0; j = (j + 1) & mask) {
+            int home = mix(day[j] - 1) & mask;
+            if (((j - home) & mask) >= ((j - gap) & mask)) {
+                day[gap] = day[j];
+                gap = j;
+            }
+        }
+        day[gap] = 0;
+        return true;
+    }
+
+    private static int mix(int member) {
+        return member * 0x9E3779B9;
+    }
+
+    private void rehash(int size) {
+        table = new int[size];
+        for (int member = 0; member < memberCount; member++) {
+            insert(member);
+        }
+    }
+
+    private void insert(int member) {
+        int mask = table.length - 1;
+        int i = hash(mostBits[member], leastBits[member]) & mask;
+        while (table[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        table[i] = member + 1;
+    }
+
+    private static int hash(long most, long least) {
+        long h = most ^ least;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+
+    private static int[] shiftRight(int[] array, int shift) {
+        int[] shifted = new int[array.length + shift];
+        System.arraycopy(array, 0, shifted, shift, array.length);
+        return shifted;
+    }
+}
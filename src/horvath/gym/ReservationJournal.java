@@ -0,0 +1,211 @@
+package horvath.gym;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Append-only journal of reservation changes
+ * <p>
+ * Every booking or cancellation is one fixed-size record: operation (1 byte),
+ * epoch day (4 bytes) and user id (16 bytes). The journal is replayed on top of the
+ * last reservation snapshot. When a new snapshot is written, the journal is kept as backup
+ * next to the backup of the previous snapshot and a new empty journal is started.
+ *
+ * @author Marcel Horváth
+ */
+public class ReservationJournal implements Closeable {
+    public static final String JOURNAL_FILE = "reservation.journal";
+    public static final int RECORD_SIZE = 21;
+    public static final int COMPACT_THRESHOLD = 4096;
+    public static final byte BOOKED = 1;
+    public static final byte CANCELLED = 2;
+    private final Path path;
+    private FileChannel channel;
+    private final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+    private volatile long entries;
+
+    /**
+     * Opens journal file, creates it if it does not exist
+     * @param path path to the journal
+     * @throws IOException
+     */
+    public ReservationJournal(Path path) throws IOException {
+        this.path = path;
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        entries = channel.size() / RECORD_SIZE;
+    }
+
+    /**
+     * Applies all complete records to the reservations, cuts off a torn record left by a crash
+     * @param reservations reservations loaded from the snapshot
+     * @return number of replayed records
+     * @throws IOException
+     */
+    public long replay(Map<LocalDate, List<UUID>> reservations) throws IOException {
+        return replay(record -> apply(reservations, record));
+    }
+
+    /**
+     * Applies all complete records to the book, cuts off a torn record left by a crash
+     * @param book book with loaded snapshot
+     * @return number of replayed records
+     * @throws IOException
+     */
+    public long replay(ReservationBook book) throws IOException {
+        return replay(record -> apply(book, record));
+    }
+
+    private long replay(Consumer<ByteBuffer> applier) throws IOException {
+        long end = entries * RECORD_SIZE;
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE * 256);
+        long position = 0;
+        while (position < end) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), end - position));
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    throw new IOException("Journal ended unexpectedly");
+                }
+            }
+            buffer.flip();
+            while (buffer.remaining() >= RECORD_SIZE) {
+                applier.accept(buffer);
+            }
+            position += buffer.limit();
+        }
+        if (channel.size() != end) {
+            channel.truncate(end);
+        }
+        channel.position(end);
+        return entries;
+    }
+
+    /**
+     * Applies all complete records of a journal file, missing file is skipped
+     * @param reservations reservations loaded from the snapshot
+     * @param path path to the journal
+     * @throws IOException
+     */
+    public static void replay(Map<LocalDate, List<UUID>> reservations, Path path) throws IOException {
+        if (!Files.isRegularFile(path)) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+        while (buffer.remaining() >= RECORD_SIZE) {
+            apply(reservations, buffer);
+        }
+    }
+
+    /**
+     * Applies one record to the reservations, booking already present in the snapshot is skipped
+     * @param reservations reservations loaded from the snapshot
+     * @param buffer buffer positioned at the start of the record
+     */
+    public static void apply(Map<LocalDate, List<UUID>> reservations, ByteBuffer buffer) {
+        byte op = buffer.get();
+        LocalDate datum = LocalDate.ofEpochDay(buffer.getInt());
+        UUID id = new UUID(buffer.getLong(), buffer.getLong());
+        if (op == BOOKED) {
+            List<UUID> reserved = reservations.computeIfAbsent(datum, d -> new ArrayList<>());
+            if (!reserved.contains(id)) {
+                reserved.add(id);
+            }
+        } else if (op == CANCELLED && reservations.containsKey(datum)) {
+            reservations.get(datum).remove(id);
+        }
+    }
+
+    /**
+     * Applies one record to the book
+     * @param book book with loaded snapshot
+     * @param buffer buffer positioned at the start of the record
+     */
+    public static void apply(ReservationBook book, ByteBuffer buffer) {
+        byte op = buffer.get();
+        LocalDate datum = LocalDate.ofEpochDay(buffer.getInt());
+        book.replay(op, datum, new UUID(buffer.getLong(), buffer.getLong()));
+    }
+
+    /**
+     * Writes one record to the buffer
+     * @param buffer buffer with at least RECORD_SIZE bytes remaining
+     * @param op BOOKED or CANCELLED
+     * @param datum reservation date
+     * @param id users id
+     */
+    public static void encode(ByteBuffer buffer, byte op, LocalDate datum, UUID id) {
+        buffer.put(op).putInt((int) datum.toEpochDay())
+                .putLong(id.getMostSignificantBits()).putLong(id.getLeastSignificantBits());
+    }
+
+    /**
+     * Appends one record to the end of the journal, can be called from more threads
+     * @param op BOOKED or CANCELLED
+     * @param datum reservation date
+     * @param id users id
+     * @throws IOException
+     */
+    public synchronized void append(byte op, LocalDate datum, UUID id) throws IOException {
+        record.clear();
+        encode(record, op, datum, id);
+        record.flip();
+        while (record.hasRemaining()) {
+            channel.write(record);
+        }
+        entries++;
+    }
+
+    /**
+     * Moves the journal to its backup and starts an empty one, called after a snapshot was written
+     * @throws IOException
+     */
+    public synchronized void reset() throws IOException {
+        channel.force(false);
+        channel.close();
+        GymTools.replace(path, backupOf(path));
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        entries = 0;
+    }
+
+    /**
+     * Gives path of the journal which belongs to the backup snapshot
+     * @param path path to the journal
+     * @return path to the backup journal
+     */
+    public static Path backupOf(Path path) {
+        return path.resolveSibling(path.getFileName() + GymTools.BACKUP_SUFFIX);
+    }
+
+    /**
+     * Checks if the journal grew enough to be compacted into a snapshot
+     * @return boolean: should the snapshot be written?
+     */
+    public boolean needsCompaction() {
+        return entries >= COMPACT_THRESHOLD;
+    }
+
+    /**
+     * Forces appended records to the disk
+     * @throws IOException
+     */
+    public synchronized void sync() throws IOException {
+        channel.force(false);
+    }
+
+    public long getEntries() {
+        return entries;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+}
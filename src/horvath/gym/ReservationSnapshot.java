@@ -0,0 +1,75 @@
+package horvath.gym;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+
+/**
+ * Read-only view of an encoded reservation snapshot
+ * <p>
+ * Only the list of days is decoded when the view is created: epoch day, number of users and
+ * position of their ids for every day. Ids stay in the buffer until the day is used, so no ids
+ * or day tables are created for days nobody touches. The checksum of the file is still checked
+ * when it is opened, which reads the whole file once.
+ *
+ * @author Marcel Horváth
+ */
+public class ReservationSnapshot {
+    private final ByteBuffer buffer;
+    private final int[] epochDays;
+    private final int[] positions;
+    private final int[] counts;
+
+    ReservationSnapshot(ByteBuffer buffer, int[] epochDays, int[] positions, int[] counts) {
+        this.buffer = buffer;
+        this.epochDays = epochDays;
+        this.positions = positions;
+        this.counts = counts;
+    }
+
+    /**
+     * Opens the snapshot file and checks its checksum
+     * The file is mapped read-only, where a mapped file can not be replaced by the next snapshot
+     * (see {@link GymTools#MAPPED_FILES_REPLACEABLE}), it is read to the heap instead
+     * @param path path to the reservation file
+     * @return view of the snapshot
+     * @throws IOException
+     * @throws GymException if the file is damaged or saved in the old format
+     */
+    public static ReservationSnapshot open(Path path) throws IOException {
+        ByteBuffer buffer = GymTools.MAPPED_FILES_REPLACEABLE ? GymTools.mapVerified(path) : GymTools.readVerified(path);
+        if (GymCodec.isLegacy(buffer)) {
+            throw new GymException("file could not be loaded", 104, "old format of " + path);
+        }
+        return GymCodec.decodeReservationDays(buffer);
+    }
+
+    public int getDayCount() {
+        return epochDays.length;
+    }
+
+    public int getEpochDay(int day) {
+        return epochDays[day];
+    }
+
+    /**
+     * Gives number of users reserved for the day
+     * @param day order of the day in the snapshot
+     */
+    public int getCount(int day) {
+        return counts[day];
+    }
+
+    /**
+     * Reads high bits of the id of one user
+     * @param day order of the day in the snapshot
+     * @param place order of the user in the day
+     */
+    public long getMostBits(int day, int place) {
+        return buffer.getLong(positions[day] + place * 16);
+    }
+
+    public long getLeastBits(int day, int place) {
+        return buffer.getLong(positions[day] + place * 16 + 8);
+    }
+}
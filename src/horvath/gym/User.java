@@ -1,33 +1,170 @@
 package horvath.gym;
 
 import java.io.*;
-import java.nio.file.Path;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.time.LocalDate;
 import java.util.*;
 
 /**
  * Class, which represents user. Includes their information
+ * <p>
+ * Saved users are loaded with identity, password and balance only. Reservations and records
+ * are read and decoded on their first access, so login does not pay for the whole history.
  * @author Marcel Horváth
  */
 public class User implements Serializable {
+    private static final long serialVersionUID = 7710517888586838988L;
     public static final String RECORDS_DIR = "records";
     public static final String RECORD_SUFFIX = "_record.txt";
     private final String name;
     private final String lastName;
     private final UUID id;
     private final GymTools.Gender gender;
-    private List<LocalDate> userReservations = new ArrayList<>();
-    private HashMap<String, List<Integer>> records = new HashMap<String,  List<Integer>>();
-    private final String password;
+    /** Hash set of reserved days, declared as Collection because old files contain ArrayList */
+    private Collection<LocalDate> userReservations;
+    /** Records only for the Java serialization, otherwise they are kept in exerciseRecords */
+    private HashMap<String, List<Integer>> records;
+    private transient ExerciseRecords exerciseRecords;
+    /** Source of encoded reservations and records of a saved user, null when both are decoded */
+    private transient SectionsSource sectionsSource;
+    private transient ByteBuffer encodedSections;
+    /** Order in which the records are shown, 1 - reverse order, 2 - natural order */
+    private transient int recordOrder = ExerciseRecords.NATURAL_ORDER;
+    private String password;
     private double balance;
+    private transient boolean sectionsChanged = true;
 
     public User(String name, String lastName, GymTools.Gender gender, String password){
+        this(name, lastName, gender, password, Credentials.DEFAULT);
+    }
+
+    /**
+     * Creates new user, the password is hashed with the cost of the credentials
+     */
+    public User(String name, String lastName, GymTools.Gender gender, String password, Credentials credentials){
+        this(UUID.randomUUID(), name, lastName, gender, credentials.hash(password));
+    }
+
+    /**
+     * Creates new user with given id and already hashed password, used when generated data have to be reproducible
+     */
+    User(UUID id, String name, String lastName, GymTools.Gender gender, String passwordHash) {
         this.name = name;
         this.lastName = lastName;
         this.gender = gender;
-        this.id = UUID.randomUUID();
-        this.password = GymTools.encryptThisString(password);
+        this.id = id;
+        this.password = passwordHash;
+        this.userReservations = new LinkedHashSet<>();
+        this.exerciseRecords = new ExerciseRecords();
+    }
 
+    /**
+     * Reads encoded reservations and records of a saved user
+     */
+    interface SectionsSource {
+        ByteBuffer read() throws IOException;
+    }
+
+    /**
+     * Creates instance of already saved user, used when the user file is decoded
+     * Reservations and records are read from the source when they are used for the first time
+     */
+    User(UUID id, String name, String lastName, GymTools.Gender gender, String password, double balance,
+         SectionsSource sections) {
+        this.id = id;
+        this.name = name;
+        this.lastName = lastName;
+        this.gender = gender;
+        this.password = password;
+        this.balance = balance;
+        this.sectionsSource = sections;
+        this.sectionsChanged = false;
+    }
+
+    private synchronized Collection<LocalDate> reservations() {
+        if (userReservations == null) {
+            userReservations = GymCodec.decodeUserReservations(sections());
+            releaseSections();
+        }
+        return userReservations;
+    }
+
+    private synchronized ExerciseRecords records() {
+        if (exerciseRecords == null) {
+            exerciseRecords = GymCodec.decodeRecords(sections());
+            releaseSections();
+        }
+        return exerciseRecords;
+    }
+
+    private ByteBuffer sections() {
+        if (encodedSections == null) {
+            try {
+                encodedSections = sectionsSource.read();
+            } catch (IOException e) {
+                throw new GymException("file could not be loaded", 104, "sections of " + name + " " + lastName);
+            }
+        }
+        return encodedSections.duplicate();
+    }
+
+    private void releaseSections() {
+        if (userReservations != null && exerciseRecords != null) {
+            sectionsSource = null;
+            encodedSections = null;
+        }
+    }
+
+    /**
+     * Gives encoded reservations and records while none of them was decoded, so they can be saved as they are
+     * @return encoded sections, null if they were already decoded
+     */
+    synchronized ByteBuffer getEncodedSections() {
+        return userReservations == null && exerciseRecords == null ? sections() : null;
+    }
+
+    /**
+     * Checks if reservations and records were already read and decoded
+     * @return boolean: are both of them decoded?
+     */
+    synchronized boolean isSectionsLoaded() {
+        return userReservations != null && exerciseRecords != null;
+    }
+
+    /**
+     * Old files contain reservations in ArrayList, they are moved to the hash set,
+     * records are moved from the map to the sorted records
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        if (!(userReservations instanceof LinkedHashSet)) {
+            userReservations = new LinkedHashSet<>(userReservations);
+        }
+        exerciseRecords = new ExerciseRecords();
+        recordOrder = ExerciseRecords.NATURAL_ORDER;
+        sectionsChanged = true;
+        if (records != null) {
+            for (Map.Entry<String, List<Integer>> record : records.entrySet()) {
+                for (int weight : record.getValue()) {
+                    exerciseRecords.add(record.getKey(), weight);
+                }
+            }
+            records = null;
+        }
+    }
+
+    /**
+     * Records are written as map, so the serialized form stays the same as in old files
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        reservations();
+        records = records().toMap(ExerciseRecords.NATURAL_ORDER);
+        try {
+            out.defaultWriteObject();
+        } finally {
+            records = null;
+        }
     }
 
     public String getName() {
@@ -42,6 +179,14 @@ public class User implements Serializable {
     public String getPassword() {
         return password;
     }
+
+    /**
+     * Replaces hash of the password, used when an old hash is upgraded at login
+     * @param passwordHash new hash of the same password
+     */
+    void setPassword(String passwordHash) {
+        this.password = passwordHash;
+    }
     public UUID getId() {
         return id;
     }
@@ -49,15 +194,48 @@ public class User implements Serializable {
         return balance;
     }
 
-    public List getUserReservations() {
-        return userReservations;
+    public Collection<LocalDate> getUserReservations() {
+        return reservations();
+    }
+
+    /**
+     * Checks if the user has reservation for the date
+     * @param datum reservation date
+     * @return boolean: is the user reserved?
+     */
+    public boolean hasReservation(LocalDate datum) {
+        return reservations().contains(datum);
     }
     public String getReservationsToString() {
-        return userReservations.toString().replaceAll("\\[|\\]|\"","");
+        return reservations().toString().replaceAll("\\[|\\]|\"","");
     }
 
-    public HashMap<String, List<Integer>> getRecords() {
-        return records;
+    /**
+     * Copies records in the order chosen by sortRecords
+     * @return exercises with their weights
+     */
+    public LinkedHashMap<String, List<Integer>> getRecords() {
+        return records().toMap(recordOrder);
+    }
+
+    public ExerciseRecords getExerciseRecords() {
+        return records();
+    }
+
+    int getRecordOrder() {
+        return recordOrder;
+    }
+
+    /**
+     * Checks if reservations or records changed since the user was loaded or saved
+     * @return boolean: have to be reservations and records saved?
+     */
+    boolean isSectionsChanged() {
+        return sectionsChanged;
+    }
+
+    void setSectionsSaved() {
+        sectionsChanged = false;
     }
 
     /**
@@ -66,10 +244,8 @@ public class User implements Serializable {
      * @param weight weight of the exercise
      */
     public void setRecords(String exercise, Integer weight) {
-        if(!records.containsKey(exercise)){
-            records.put(exercise, new ArrayList<>());
-        }
-        records.get(exercise).add(weight);
+        records().add(exercise, weight);
+        sectionsChanged = true;
     }
 
 
@@ -78,51 +254,28 @@ public class User implements Serializable {
      * @return string of formatted records
      */
     public String getRecordsToString() {
-        StringBuffer Zaznamy = new StringBuffer();
-        for (Map.Entry<String, List<Integer>> map : getRecords().entrySet()) {
-            Zaznamy.append((map.getKey() + " = " + map.getValue()).replaceAll("\\[|\\]|\"","") + System.lineSeparator());
-            System.out.println();
-        }
-        return Zaznamy.toString();
+        return records().toString(recordOrder);
     }
 
     /**
-     * Sorts Arraylist in natural or reverse order
-     * @param choice int to control, which sorting will be used 1 - reverse order, 2 - natural order
+     * Chooses order of the records, they are kept sorted, so nothing is sorted here
+     * @param choice int to control, which order will be used 1 - reverse order, 2 - natural order
      */
     public void sortRecords(int choice){
-        switch(choice) {
-            case 1:
-                for (List<Integer> list : records.values()) {
-                    list.sort(Comparator.reverseOrder());
-                }
-                records = GymTools.sortByValueReverseOrder(records);
-                break;
-            case 2:
-                for (List<Integer> list : records.values()) {
-                    list.sort(Comparator.naturalOrder());
-                }
-                records = GymTools.sortByValueNaturalOrder(records);
-                break;
+        if (choice == ExerciseRecords.REVERSE_ORDER || choice == ExerciseRecords.NATURAL_ORDER) {
+            recordOrder = choice;
         }
     }
 
     /**
-     * Prints the record file
-     * Creates .txt file in data/records/"+name+"_record.txt
+     * Prints the records to the output, the gym storage decides where they are saved
+     * @param out output for the records
+     * @throws IOException
      */
-    public void printRecords(File dir) {
-        File recordsDir = Path.of(dir.getPath(), RECORDS_DIR).toFile();
-        if (!recordsDir.exists()) {
-            recordsDir.mkdirs();
-        }
-
-        try (PrintWriter out = new PrintWriter(Path.of(dir.getPath(), RECORDS_DIR, name+RECORD_SUFFIX).toFile())) {
-            out.println(getRecordsToString());
-        } catch (FileNotFoundException e) {
-            throw new RuntimeException(e);
-
-        }
+    public void printRecords(WritableByteChannel out) throws IOException {
+        RecordExporter exporter = new RecordExporter(out, RecordExporter.Format.TEXT);
+        exporter.write(this);
+        exporter.flush();
     }
 
     /**
@@ -153,7 +306,8 @@ public class User implements Serializable {
      */
     public void setReservations(LocalDate datum, double fee){
         balance -= fee;
-        userReservations.add(datum);
+        reservations().add(datum);
+        sectionsChanged = true;
     }
 
     /**
@@ -163,7 +317,8 @@ public class User implements Serializable {
      */
     public void removeReservation(LocalDate datum, double fee){
         balance += fee;
-        userReservations.remove(datum);
+        reservations().remove(datum);
+        sectionsChanged = true;
     }
 
 
@@ -178,8 +333,8 @@ public class User implements Serializable {
                 ", lastName='" + lastName + '\'' +
                 ", id=" + id +
                 ", gender=" + gender +
-                ", userReservations=" + userReservations +
-                ", records=" + records +
+                ", userReservations=" + reservations() +
+                ", records=" + getRecords() +
                 ", password='" + password + '\'' +
                 ", balance=" + balance +
                 '}';
@@ -0,0 +1,392 @@
+package horvath.gym;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only log of workouts of one member: time, exercise, weight, repetitions and sets
+ * <p>
+ * The file is a sequence of chunks, every chunk has magic, length of its body, the body and
+ * CRC32C of the body. The body holds number of entries, names of exercises used in the chunk
+ * and then whole columns: times (long), exercises (int, index to the names of the chunk),
+ * weights (float), repetitions (int) and sets (int). New entries are written as a new chunk,
+ * so nothing already written is changed. The file is read only when the history is asked for,
+ * the history is then kept in primitive columns, so queries only scan arrays. Statistics
+ * of every exercise are built together with the history and then updated by every append.
+ * A log without path is kept only in memory.
+ *
+ * @author Marcel Horváth
+ */
+public class WorkoutLog implements Closeable {
+    public static final String WORKOUTS_DIR = "workouts";
+    public static final String LOG_SUFFIX = ".log";
+    private static final int CHUNK_MAGIC = 0x47594D57;
+    private static final int CHUNK_HEADER = 8;
+    private static final int CHUNK_TRAILER = 4;
+    /** Entries written as one chunk without waiting for the flush */
+    private static final int CHUNK_SIZE = 4096;
+    private final Path path;
+    /** Whole history, null until it is asked for */
+    private Columns history;
+    /** Entries not written to the file yet */
+    private final Columns pending = new Columns();
+    /** Statistics of exercises, kept together with the history */
+    private final Map<String, ExerciseStats> stats = new LinkedHashMap<>();
+    /** Length of the whole chunks in the file, -1 until the file is checked at the first write */
+    private long end = -1;
+    /** Closed log does not take new entries, the next session of the user opens a new one */
+    private boolean closed;
+
+    /**
+     * Called for every entry of the scanned exercise
+     */
+    public interface Visitor {
+        void visit(long time, float weight, int reps, int sets);
+    }
+
+    /**
+     * Columns of entries with names of their exercises
+     */
+    private static class Columns {
+        private final List<String> names = new ArrayList<>();
+        private final Map<String, Integer> ids = new HashMap<>();
+        private long[] times = new long[16];
+        private int[] exercises = new int[16];
+        private float[] weights = new float[16];
+        private int[] reps = new int[16];
+        private int[] sets = new int[16];
+        private int size;
+
+        private int id(String exercise) {
+            Integer id = ids.get(exercise);
+            if (id == null) {
+                id = names.size();
+                names.add(exercise);
+                ids.put(exercise, id);
+            }
+            return id;
+        }
+
+        private void add(long time, int exercise, float weight, int rep, int set) {
+            if (size == times.length) {
+                int capacity = size * 2;
+                times = Arrays.copyOf(times, capacity);
+                exercises = Arrays.copyOf(exercises, capacity);
+                weights = Arrays.copyOf(weights, capacity);
+                reps = Arrays.copyOf(reps, capacity);
+                sets = Arrays.copyOf(sets, capacity);
+            }
+            times[size] = time;
+            exercises[size] = exercise;
+            weights[size] = weight;
+            reps[size] = rep;
+            sets[size] = set;
+            size++;
+        }
+
+        private void clear() {
+            names.clear();
+            ids.clear();
+            size = 0;
+        }
+    }
+
+    /**
+     * Creates log, the file is not read until the history is needed
+     * @param path file of the log, null for log kept only in memory
+     */
+    public WorkoutLog(Path path) {
+        this.path = path;
+        if (path == null) {
+            history = new Columns();
+        }
+    }
+
+    /**
+     * Adds workout to the log, it is written to the file by the flush
+     * @param time time of the workout in milliseconds since the epoch
+     * @param exercise name of the exercise
+     * @param weight lifted weight
+     * @param reps repetitions in one set
+     * @param sets number of sets
+     * @throws IOException
+     * @throws GymException if the log was closed
+     */
+    public synchronized void append(long time, String exercise, float weight, int reps, int sets) throws IOException {
+        if (reps <= 0 || sets <= 0 || weight < 0) {
+            throw new GymException("Bad input", 103, "repetitions and sets have to be positive, weight not negative");
+        }
+        if (closed) {
+            throw new GymException("User is logged off", 100, "workout log is closed " + path);
+        }
+        if (history != null) {
+            history.add(time, history.id(exercise), weight, reps, sets);
+            stats.computeIfAbsent(exercise, ExerciseStats::new).add(time, weight, reps, sets);
+        }
+        if (path == null) {
+            return;
+        }
+        pending.add(time, pending.id(exercise), weight, reps, sets);
+        if (pending.size >= CHUNK_SIZE) {
+            flush();
+        }
+    }
+
+    /**
+     * Writes pending entries as one chunk, the file is opened only for the write,
+     * so a gym with many members does not keep all their logs open. The file is checked
+     * only at the first write, then chunks are written at the remembered end.
+     * @throws IOException
+     */
+    public synchronized void flush() throws IOException {
+        if (pending.size == 0) {
+            return;
+        }
+        if (end < 0) {
+            Files.createDirectories(path.getParent());
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            if (end < 0) {
+                end = validLength(channel);
+                channel.truncate(end);
+            }
+            long position = end;
+            // a failed write can leave a torn chunk, then the file is checked again
+            end = -1;
+            ByteBuffer chunk = encode(pending);
+            while (chunk.hasRemaining()) {
+                position += channel.write(chunk, position);
+            }
+            channel.force(false);
+            end = position;
+        }
+        pending.clear();
+    }
+
+    /**
+     * Gives number of entries in the whole history
+     * @throws IOException
+     */
+    public synchronized int size() throws IOException {
+        return history().size;
+    }
+
+    /**
+     * Gives names of all logged exercises
+     * @throws IOException
+     */
+    public synchronized List<String> getExercises() throws IOException {
+        return new ArrayList<>(history().names);
+    }
+
+    /**
+     * Gives statistics of the exercise, they are kept up to date, so nothing is scanned
+     * @param exercise name of the exercise
+     * @return copy of the statistics, null if the exercise was not logged
+     * @throws IOException
+     */
+    public synchronized ExerciseStats getStats(String exercise) throws IOException {
+        history();
+        ExerciseStats exerciseStats = stats.get(exercise);
+        return exerciseStats == null ? null : exerciseStats.copy();
+    }
+
+    /**
+     * Gives statistics of all logged exercises in the order they were first logged
+     * @return copies of the statistics
+     * @throws IOException
+     */
+    public synchronized List<ExerciseStats> getAllStats() throws IOException {
+        history();
+        List<ExerciseStats> all = new ArrayList<>(stats.size());
+        for (ExerciseStats exerciseStats : stats.values()) {
+            all.add(exerciseStats.copy());
+        }
+        return all;
+    }
+
+    /**
+     * Calls the visitor for every entry of the exercise in the time range, in the order they were logged
+     * @param exercise name of the exercise
+     * @param from first millisecond of the range
+     * @param to last millisecond of the range
+     * @param visitor called for the entries
+     * @throws IOException
+     */
+    public synchronized void scan(String exercise, long from, long to, Visitor visitor) throws IOException {
+        Columns columns = history();
+        Integer id = columns.ids.get(exercise);
+        if (id == null) {
+            return;
+        }
+        for (int i = 0; i < columns.size; i++) {
+            if (columns.exercises[i] == id && columns.times[i] >= from && columns.times[i] <= to) {
+                visitor.visit(columns.times[i], columns.weights[i], columns.reps[i], columns.sets[i]);
+            }
+        }
+    }
+
+    /**
+     * Gives the heaviest weight of the exercise in the time range
+     * @return weight, 0 if the exercise was not logged
+     * @throws IOException
+     */
+    public synchronized float best(String exercise, long from, long to) throws IOException {
+        float[] best = new float[1];
+        scan(exercise, from, to, (time, weight, reps, sets) -> best[0] = Math.max(best[0], weight));
+        return best[0];
+    }
+
+    /**
+     * Gives lifted volume of the exercise in the time range, weight times repetitions times sets
+     * @throws IOException
+     */
+    public synchronized double volume(String exercise, long from, long to) throws IOException {
+        double[] volume = new double[1];
+        scan(exercise, from, to, (time, weight, reps, sets) -> volume[0] += (double) weight * reps * sets);
+        return volume[0];
+    }
+
+    /**
+     * Writes pending entries, closed log does not take new entries
+     * A log kept only in memory stays open, because it is the only copy of the history
+     * @throws IOException
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (path == null) {
+            return;
+        }
+        flush();
+        closed = true;
+    }
+
+    /**
+     * Reads the file at the first query, entries appended before are already written or pending
+     */
+    private Columns history() throws IOException {
+        if (history != null) {
+            return history;
+        }
+        history = new Columns();
+        if (path != null && Files.exists(path)) {
+            decode(ByteBuffer.wrap(Files.readAllBytes(path)), history);
+        }
+        for (int i = 0; i < pending.size; i++) {
+            history.add(pending.times[i], history.id(pending.names.get(pending.exercises[i])),
+                    pending.weights[i], pending.reps[i], pending.sets[i]);
+        }
+        for (int i = 0; i < history.size; i++) {
+            stats.computeIfAbsent(history.names.get(history.exercises[i]), ExerciseStats::new)
+                    .add(history.times[i], history.weights[i], history.reps[i], history.sets[i]);
+        }
+        return history;
+    }
+
+    private static ByteBuffer encode(Columns columns) {
+        List<byte[]> names = new ArrayList<>(columns.names.size());
+        int bodyLength = 8;
+        for (String name : columns.names) {
+            byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+            names.add(bytes);
+            bodyLength += 2 + bytes.length;
+        }
+        bodyLength += columns.size * (8 + 4 + 4 + 4 + 4);
+        ByteBuffer buffer = ByteBuffer.allocate(CHUNK_HEADER + bodyLength + CHUNK_TRAILER);
+        buffer.putInt(CHUNK_MAGIC).putInt(bodyLength);
+        buffer.putInt(columns.size).putInt(names.size());
+        for (byte[] name : names) {
+            buffer.putShort((short) name.length).put(name);
+        }
+        for (int i = 0; i < columns.size; i++) {
+            buffer.putLong(columns.times[i]);
+        }
+        for (int i = 0; i < columns.size; i++) {
+            buffer.putInt(columns.exercises[i]);
+        }
+        for (int i = 0; i < columns.size; i++) {
+            buffer.putFloat(columns.weights[i]);
+        }
+        for (int i = 0; i < columns.size; i++) {
+            buffer.putInt(columns.reps[i]);
+        }
+        for (int i = 0; i < columns.size; i++) {
+            buffer.putInt(columns.sets[i]);
+        }
+        buffer.putInt(checksum(buffer, CHUNK_HEADER, bodyLength));
+        return buffer.flip();
+    }
+
+    /**
+     * Reads all chunks to the columns, chunks with wrong checksum are skipped
+     */
+    private static void decode(ByteBuffer buffer, Columns columns) {
+        while (buffer.remaining() >= CHUNK_HEADER + CHUNK_TRAILER) {
+            int start = buffer.position();
+            int bodyLength = buffer.getInt(start + 4);
+            if (buffer.getInt(start) != CHUNK_MAGIC || bodyLength < 8
+                    || bodyLength > buffer.remaining() - CHUNK_HEADER - CHUNK_TRAILER) {
+                return;
+            }
+            int next = start + CHUNK_HEADER + bodyLength + CHUNK_TRAILER;
+            if (checksum(buffer, start + CHUNK_HEADER, bodyLength) != buffer.getInt(next - CHUNK_TRAILER)) {
+                buffer.position(next);
+                continue;
+            }
+            ByteBuffer body = buffer.slice(start + CHUNK_HEADER, bodyLength);
+            int count = body.getInt();
+            int[] ids = new int[body.getInt()];
+            for (int i = 0; i < ids.length; i++) {
+                byte[] name = new byte[body.getShort() & 0xFFFF];
+                body.get(name);
+                ids[i] = columns.id(new String(name, StandardCharsets.UTF_8));
+            }
+            int times = body.position();
+            int exercises = times + count * 8;
+            int weights = exercises + count * 4;
+            int reps = weights + count * 4;
+            int sets = reps + count * 4;
+            for (int i = 0; i < count; i++) {
+                columns.add(body.getLong(times + i * 8), ids[body.getInt(exercises + i * 4)],
+                        body.getFloat(weights + i * 4), body.getInt(reps + i * 4), body.getInt(sets + i * 4));
+            }
+            buffer.position(next);
+        }
+    }
+
+    /**
+     * Walks over chunk headers and finds end of the last whole chunk, a torn chunk after it is cut off
+     */
+    private static long validLength(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(CHUNK_HEADER);
+        long size = channel.size();
+        long position = 0;
+        while (position + CHUNK_HEADER + CHUNK_TRAILER <= size) {
+            header.clear();
+            if (channel.read(header, position) < CHUNK_HEADER) {
+                break;
+            }
+            int bodyLength = header.getInt(4);
+            if (header.getInt(0) != CHUNK_MAGIC || bodyLength < 8
+                    || position + CHUNK_HEADER + bodyLength + CHUNK_TRAILER > size) {
+                break;
+            }
+            position += CHUNK_HEADER + bodyLength + CHUNK_TRAILER;
+        }
+        return position;
+    }
+
+    private static int checksum(ByteBuffer buffer, int offset, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.slice(offset, length));
+        return (int) crc.getValue();
+    }
+}